@@ -1,790 +1,5617 @@
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Scanner;
-import java.util.Vector;
-import java.util.stream.Stream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
 
 class Terminal {
-    class Parser {
-        private String fullCommand;
-        private String commandName;
-        private Vector<String> args = new Vector<String>();
+    // Tokenizes one command line: quotes group words, backslash escapes, | > >> & are
+    // operators, and words with unquoted wildcards also get a glob pattern.
+    static class Parser {
+        static final byte WORD = 0;
+        static final byte PIPE = 1;
+        static final byte REDIRECT = 2;
+        static final byte APPEND = 3;
+        static final byte BACKGROUND = 4;
 
+        private String[] tokens = new String[16];
+        private String[] patterns = new String[16];
+        private byte[] kinds = new byte[16];
+        private int count;
+        private String line;
+        private final StringBuilder word = new StringBuilder();
+        private final StringBuilder pattern = new StringBuilder();
+
+        // returns false for a line without tokens; throws
+        // IllegalArgumentException for an unterminated quote
         public boolean parse(String input) {
-            if (input.isEmpty()) {
-                return false;
-            } else {
-                fullCommand = input;
-                Pattern pattern = Pattern.compile("\"([^\"\\\\]*(?:\\\\.[^\"\\\\]*)*)?\"|(?:\\S+)");
-                Matcher matcher = pattern.matcher(input);
+            count = 0;
+            line = input;
+            int n = input.length();
+            int i = 0;
+            while (i < n) {
+                char c = input.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '|') {
+                    add(null, null, PIPE);
+                    i++;
+                } else if (c == '>') {
+                    boolean append = i + 1 < n && input.charAt(i + 1) == '>';
+                    add(null, null, append ? APPEND : REDIRECT);
+                    i += append ? 2 : 1;
+                } else if (c == '&') {
+                    add(null, null, BACKGROUND);
+                    i++;
+                } else {
+                    i = readWord(input, i);
+                }
+            }
+            return count > 0;
+        }
 
-                while (matcher.find()) {
-                    args.add(matcher.group());
+        private int readWord(String input, int start) {
+            int n = input.length();
+            int i = start;
+            boolean glob = false;
+            // plain words (the common case) are taken as a substring without copying through the builder
+            while (i < n) {
+                char c = input.charAt(i);
+                if (Character.isWhitespace(c) || c == '|' || c == '>' || c == '&') {
+                    String text = input.substring(start, i);
+                    add(text, glob ? text : null, WORD);
+                    return i;
+                }
+                if (c == '"' || c == '\'' || c == '\\') {
+                    break;
                 }
+                glob |= isWildcard(c);
+                i++;
+            }
+            if (i == n) {
+                String text = input.substring(start, i);
+                add(text, glob ? text : null, WORD);
+                return i;
+            }
 
-                if (args.size() == 1) {
-                    commandName = args.get(0);
-                    args.remove(0);
+            word.setLength(0);
+            word.append(input, start, i);
+            pattern.setLength(0);
+            pattern.append(input, start, i);
+            while (i < n) {
+                char c = input.charAt(i);
+                if (Character.isWhitespace(c) || c == '|' || c == '>' || c == '&') {
+                    break;
+                }
+                if (c == '\\' && i + 1 < n && isEscapable(input.charAt(i + 1))) {
+                    word.append(input.charAt(i + 1));
+                    appendLiteral(input.charAt(i + 1));
+                    i += 2;
+                } else if (c == '"' || c == '\'') {
+                    int close = i + 1;
+                    while (close < n && input.charAt(close) != c) {
+                        char q = input.charAt(close);
+                        if (c == '"' && q == '\\' && close + 1 < n
+                                && (input.charAt(close + 1) == '"' || input.charAt(close + 1) == '\\')) {
+                            close++;
+                            q = input.charAt(close);
+                        }
+                        word.append(q);
+                        appendLiteral(q);
+                        close++;
+                    }
+                    if (close == n) {
+                        throw new IllegalArgumentException("unterminated " + (c == '"' ? "double" : "single") + " quote");
+                    }
+                    i = close + 1;
                 } else {
-                    if (args.size() >= 2 && args.get(1).equals("-r")) {
-                        commandName = args.get(0) + " " + args.get(1);
-                        args.remove(0);
-                        args.remove(0);
+                    word.append(c);
+                    if (c == '\\') {
+                        appendLiteral(c);
                     } else {
-                        commandName = args.get(0);
-                        args.remove(0);
+                        pattern.append(c);
+                        glob |= isWildcard(c);
                     }
+                    i++;
                 }
-                commandName = commandName.toLowerCase();
-                return true;
             }
+            add(word.toString(), glob ? pattern.toString() : null, WORD);
+            return i;
         }
 
-        public String getFullCommand() {
-            return fullCommand;
+        private static boolean isWildcard(char c) {
+            return c == '*' || c == '?' || c == '[' || c == '{';
         }
 
-        public String getCommandName() {
-            return commandName;
+        // a quoted or escaped character, which the glob pattern must match as itself
+        private void appendLiteral(char c) {
+            if (Glob.SPECIAL.indexOf(c) >= 0) {
+                pattern.append('\\');
+            }
+            pattern.append(c);
         }
 
-        public Vector<String> getArgs() {
-            return args;
+        private static boolean isEscapable(char c) {
+            return c == '"' || c == '\'' || c == '\\' || c == '|' || c == '>' || c == '&' || c == ' ' || c == '\t'
+                    || isWildcard(c);
         }
 
-        public void clearFullCommand() {
-            fullCommand = "";
+        private void add(String token, String glob, byte kind) {
+            if (count == tokens.length) {
+                tokens = Arrays.copyOf(tokens, count * 2);
+                patterns = Arrays.copyOf(patterns, count * 2);
+                kinds = Arrays.copyOf(kinds, count * 2);
+            }
+            tokens[count] = token;
+            patterns[count] = glob;
+            kinds[count] = kind;
+            count++;
         }
 
-        public void clearCommandName() {
-            commandName = "";
+        int size() {
+            return count;
         }
 
-        public void clearArgs() {
-            args.clear();
+        String token(int i) {
+            return tokens[i];
         }
-    }
 
-    private Path currentDirectory;
-    private Parser parser = new Parser();
+        byte kind(int i) {
+            return kinds[i];
+        }
 
-    public Terminal() {
-        this.currentDirectory = Paths.get(System.getProperty("user.dir")).toAbsolutePath().normalize();
+        // the glob pattern of a word with unquoted wildcards, null otherwise
+        String pattern(int i) {
+            return patterns[i];
+        }
+
+        String line() {
+            return line;
+        }
+
+        static String symbol(byte kind) {
+            return kind == PIPE ? "|" : kind == REDIRECT ? ">" : kind == APPEND ? ">>" : kind == BACKGROUND ? "&" : "word";
+        }
+
+        // drops the token strings so a long line is not kept reachable
+        void clear() {
+            Arrays.fill(tokens, 0, count, null);
+            Arrays.fill(patterns, 0, count, null);
+            count = 0;
+            line = null;
+        }
     }
 
-    public void open() {
-        Scanner input = new Scanner(System.in);
-        while (true) {
-            String prompt = currentDirectory.getFileName() != null ? currentDirectory.getFileName().toString()
-                    : currentDirectory.toString();
-            System.out.print(prompt + " > ");
-            String userInput = input.nextLine();
-            if (userInput.equals("exit")) {
-                System.out.println("Goodbye!");
-                break;
+    // getopt-style flags: grouped switches ("-lw"), values ("-j 4", "-j4") and "--".
+    static class Flags {
+        private final Set<Character> switches = new HashSet<>();
+        private final Map<Character, String> values = new HashMap<>();
+        private final List<String> operands = new ArrayList<>();
+
+        static Flags parse(String[] args, String switchChars, String valueChars) {
+            Flags flags = new Flags();
+            boolean optionsDone = false;
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (optionsDone || arg.length() < 2 || arg.charAt(0) != '-') {
+                    flags.operands.add(arg);
+                    continue;
+                }
+                if (arg.equals("--")) {
+                    optionsDone = true;
+                    continue;
+                }
+                for (int j = 1; j < arg.length(); j++) {
+                    char c = arg.charAt(j);
+                    if (valueChars.indexOf(c) >= 0) {
+                        String value;
+                        if (j + 1 < arg.length()) {
+                            value = arg.substring(j + 1);
+                        } else if (i + 1 < args.length) {
+                            value = args[++i];
+                        } else {
+                            throw new IllegalArgumentException("option requires an argument -- '" + c + "'");
+                        }
+                        flags.values.put(c, value);
+                        break;
+                    }
+                    if (switchChars.indexOf(c) < 0) {
+                        throw new IllegalArgumentException("invalid option -- '" + c + "'");
+                    }
+                    flags.switches.add(c);
+                }
             }
-            if (parser.parse(userInput)) {
-                this.chooseCommandAction(parser);
+            return flags;
+        }
+
+        boolean has(char c) {
+            return switches.contains(c) || values.containsKey(c);
+        }
+
+        String value(char c, String defaultValue) {
+            return values.getOrDefault(c, defaultValue);
+        }
+
+        int intValue(char c, int defaultValue) {
+            String value = values.get(c);
+            if (value == null) {
+                return defaultValue;
+            }
+            try {
+                int n = Integer.parseInt(value);
+                if (n < 1) {
+                    throw new NumberFormatException();
+                }
+                return n;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid number '" + value + "' for -" + c);
             }
-            parser.clearArgs();
-            parser.clearCommandName();
-            parser.clearFullCommand();
         }
-        input.close();
+
+        List<String> operands() {
+            return operands;
+        }
     }
 
-    public void chooseCommandAction(Parser parser) {
-        Vector<String> args = new Vector<>(parser.getArgs());
-        String outputFile = null;
-        boolean append = false;
+    // Expands one glob word: braces as text, then *, ?, [...] and ** segment by segment;
+    // matches are sorted, and a word that matches nothing is kept as typed.
+    static final class Glob {
+        // characters a backslash escapes in a pattern
+        static final String SPECIAL = "\\*?[]{},";
 
-        int redirectIndex = -1;
-        for (int i = 0; i < args.size(); i++) {
-            if (args.get(i).equals(">") || args.get(i).equals(">>")) {
-                redirectIndex = i;
-                append = args.get(i).equals(">>");
-                break;
+        private Glob() {
+        }
+
+        static void expand(Path directory, String pattern, List<String> into) {
+            for (String alternative : braces(pattern)) {
+                if (!hasWildcard(alternative)) {
+                    into.add(unescape(alternative));
+                    continue;
+                }
+                List<String> matches = match(directory, alternative);
+                if (matches.isEmpty()) {
+                    into.add(unescape(alternative));
+                } else {
+                    into.addAll(matches);
+                }
+            }
+        }
+
+        // expands the first brace set with a top-level comma, then the rest
+        // of each result; a brace without a partner or a comma is literal
+        static List<String> braces(String pattern) {
+            int open = -1;
+            int depth = 0;
+            int close = -1;
+            List<Integer> commas = new ArrayList<>();
+            for (int i = 0; i < pattern.length() && close < 0; i++) {
+                char c = pattern.charAt(i);
+                if (c == '\\') {
+                    i++;
+                } else if (c == '{') {
+                    if (depth++ == 0) {
+                        open = i;
+                        commas.clear();
+                    }
+                } else if (c == '}' && depth > 0) {
+                    if (--depth == 0) {
+                        if (commas.isEmpty()) {
+                            open = -1;
+                        } else {
+                            close = i;
+                        }
+                    }
+                } else if (c == ',' && depth == 1) {
+                    commas.add(i);
+                }
             }
+            if (close < 0) {
+                return Collections.singletonList(pattern);
+            }
+            String prefix = pattern.substring(0, open);
+            String suffix = pattern.substring(close + 1);
+            List<String> result = new ArrayList<>();
+            int from = open + 1;
+            commas.add(close);
+            for (int comma : commas) {
+                result.addAll(braces(prefix + pattern.substring(from, comma) + suffix));
+                from = comma + 1;
+            }
+            return result;
         }
 
-        if (redirectIndex != -1 && redirectIndex < args.size() - 1) {
-            outputFile = args.get(redirectIndex + 1);
+        private static List<String> match(Path directory, String pattern) {
+            boolean absolute = pattern.startsWith("/");
+            boolean directoriesOnly = pattern.endsWith("/");
+            List<String> segments = new ArrayList<>();
+            for (String segment : pattern.split("/")) {
+                if (!segment.isEmpty()) {
+                    segments.add(segment);
+                }
+            }
+            List<String> names = new ArrayList<>();
+            List<Path> paths = new ArrayList<>();
+            names.add(absolute ? "/" : "");
+            paths.add(absolute ? directory.getRoot() : directory);
+            boolean lastLiteral = false;
+
+            for (int k = 0; k < segments.size() && !paths.isEmpty(); k++) {
+                String segment = segments.get(k);
+                boolean last = k == segments.size() - 1;
+                List<String> nextNames = new ArrayList<>();
+                List<Path> nextPaths = new ArrayList<>();
+                PathMatcher matcher = null;
+                if (hasWildcard(segment) && !segment.equals("**")) {
+                    try {
+                        matcher = FileSystems.getDefault().getPathMatcher("glob:" + segment.replace("[^", "[!"));
+                    } catch (PatternSyntaxException e) {
+                        // an unclosed [ is an ordinary character
+                    }
+                }
+                lastLiteral = false;
+                for (int c = 0; c < paths.size(); c++) {
+                    String name = names.get(c);
+                    Path path = paths.get(c);
+                    if (segment.equals("**")) {
+                        descend(name, path, last, nextNames, nextPaths);
+                    } else if (matcher == null) {
+                        String literal = unescape(segment);
+                        nextNames.add(join(name, literal));
+                        nextPaths.add(path.resolve(literal));
+                        lastLiteral = true;
+                    } else {
+                        scan(name, path, matcher, segment.startsWith("."), last && !directoriesOnly,
+                                nextNames, nextPaths);
+                    }
+                }
+                names = nextNames;
+                paths = nextPaths;
+            }
+
+            List<String> result = new ArrayList<>();
+            for (int c = 0; c < paths.size(); c++) {
+                Path path = paths.get(c);
+                if (lastLiteral && !Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+                    continue;
+                }
+                if (directoriesOnly) {
+                    if (Files.isDirectory(path)) {
+                        result.add(names.get(c) + "/");
+                    }
+                } else {
+                    result.add(names.get(c));
+                }
+            }
+            Collections.sort(result);
+            return result;
+        }
 
-            args.remove(redirectIndex);
-            args.remove(redirectIndex);
+        // one directory scan for a wildcard segment; entries that are not the
+        // last segment must be directories to lead anywhere
+        private static void scan(String name, Path directory, PathMatcher matcher, boolean hidden, boolean filesToo,
+                List<String> names, List<Path> paths) {
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    Path fileName = entry.getFileName();
+                    if ((!hidden && fileName.toString().startsWith(".")) || !matcher.matches(fileName)) {
+                        continue;
+                    }
+                    if (filesToo || Files.isDirectory(entry)) {
+                        names.add(join(name, fileName.toString()));
+                        paths.add(entry);
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                // not a directory or not readable: no matches below it
+            }
         }
 
-        String[] argsArray = args.toArray(new String[0]);
+        // "**": the directory itself and every directory under it, or, as the
+        // last segment, everything under it; hidden directories are skipped
+        private static void descend(String name, Path directory, boolean last, List<String> names, List<Path> paths) {
+            if (!last) {
+                names.add(name);
+                paths.add(directory);
+            }
+            try {
+                Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                        if (dir.equals(directory)) {
+                            return FileVisitResult.CONTINUE;
+                        }
+                        if (dir.getFileName().toString().startsWith(".")) {
+                            return FileVisitResult.SKIP_SUBTREE;
+                        }
+                        add(dir);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        if (last && !file.getFileName().toString().startsWith(".")) {
+                            add(file);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
 
-        if (outputFile != null) {
-            executeWithRedirection(parser.getCommandName(), argsArray, outputFile, append);
-        } else {
-            executeCommand(parser.getCommandName(), argsArray);
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    private void add(Path path) {
+                        names.add(join(name, directory.relativize(path).toString().replace(File.separatorChar, '/')));
+                        paths.add(path);
+                    }
+                });
+            } catch (IOException e) {
+                // not a directory: nothing under it
+            }
+        }
+
+        private static String join(String name, String segment) {
+            return name.isEmpty() ? segment : name.endsWith("/") ? name + segment : name + "/" + segment;
+        }
+
+        static boolean hasWildcard(String pattern) {
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if (c == '\\') {
+                    i++;
+                } else if (c == '*' || c == '?' || c == '[') {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        static String unescape(String pattern) {
+            if (pattern.indexOf('\\') < 0) {
+                return pattern;
+            }
+            StringBuilder sb = new StringBuilder(pattern.length());
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if (c == '\\' && i + 1 < pattern.length()) {
+                    c = pattern.charAt(++i);
+                }
+                sb.append(c);
+            }
+            return sb.toString();
         }
     }
 
-    private void executeWithRedirection(String commandName, String[] args, String outputFile, boolean append) {
-        PrintStream originalOut = System.out;
+    // LRU cache of sorted directory listings for ls and cd, invalidated by a
+    // WatchService and by the commands that modify a directory.
+    static class ListingCache {
+        static final int MAX_DIRECTORIES = 256;
+        // attribute ranges larger than this are stat'ed on the common pool
+        static final int PARALLEL_STAT_THRESHOLD = 1024;
 
-        try {
-            if (outputFile.length() >= 2 &&
-                    (outputFile.charAt(0) == '"') &&
-                    (outputFile.charAt(outputFile.length() - 1) == '"')) {
-                outputFile = outputFile.substring(1, outputFile.length() - 1);
+        // Names come from a single directory read; attributes are filled in
+        // lazily, range by range, with one readAttributes call per entry.
+        static class Listing {
+            static final boolean POSIX = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+
+            final List<String> names = new ArrayList<>();
+            BasicFileAttributes[] attributes;
+            WatchKey key;
+
+            synchronized void loadAttributes(Path dir, int from, int to) {
+                if (attributes == null) {
+                    attributes = new BasicFileAttributes[names.size()];
+                }
+                IntStream range = IntStream.range(from, to).filter(i -> attributes[i] == null);
+                if (to - from > PARALLEL_STAT_THRESHOLD) {
+                    range = range.parallel();
+                }
+                range.forEach(i -> attributes[i] = stat(dir.resolve(names.get(i))));
             }
+        }
 
-            Path outputPath = Paths.get(outputFile);
-            if (!outputPath.isAbsolute()) {
-                outputPath = currentDirectory.resolve(outputFile).normalize();
+        static BasicFileAttributes stat(Path path) {
+            try {
+                if (Listing.POSIX) {
+                    return Files.readAttributes(path, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                }
+                return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (IOException e) {
+                return null; // removed since the directory was read
             }
+        }
 
-            Path parentDir = outputPath.getParent();
-            if (parentDir != null && !Files.exists(parentDir)) {
-                Files.createDirectories(parentDir);
+        private WatchService watcher;
+        private boolean watcherStarted;
+        private final Map<Path, Listing> listings = new LinkedHashMap<Path, Listing>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Listing> eldest) {
+                if (size() > MAX_DIRECTORIES) {
+                    eldest.getValue().key.cancel();
+                    return true;
+                }
+                return false;
             }
+        };
 
-            try (PrintStream fileOut = new PrintStream(new FileOutputStream(outputPath.toFile(), append))) {
-                System.setOut(fileOut);
-                executeCommand(commandName, args);
+        // one watch service, with one background thread, serves the whole cache; the
+        // first ls starts it, which keeps startup cheap for short batch runs
+        private void startWatcher() {
+            watcherStarted = true;
+            try {
+                watcher = FileSystems.getDefault().newWatchService();
+            } catch (IOException | UnsupportedOperationException e) {
+                watcher = null; // no watch support: listings are never cached
             }
-        } catch (FileNotFoundException e) {
-            System.err.println("Error: Cannot create output file: " + outputFile);
-        } catch (IOException e) {
-            System.err.println("Error: Cannot create directory for output file: " + e.getMessage());
-        } finally {
-            System.setOut(originalOut);
         }
-    }
 
-    private void executeCommand(String commandName, String[] args) {
+        synchronized Listing get(Path dir) throws IOException {
+            if (!watcherStarted) {
+                startWatcher();
+            }
+            drainEvents();
+            Listing listing = listings.get(dir);
+            if (listing != null) {
+                return listing;
+            }
 
-        switch (commandName) {
-            case "echo":
-                echo(args);
-                break;
-            case "cd":
-                cd(args);
-                System.out.println("Now in: " + getCurrentDirectory());
-                break;
-            case "pwd":
-                pwd();
-                break;
-            case "ls":
-                ls(args);
-                break;
-            case "wc":
-                wc(args);
-                break;
-            case "touch":
-                touch(args);
-                break;
-            case "cat":
-                cat(args);
-                break;
-            case "cp":
-                cp(args);
-                break;
-            case "cp -r":
-                cp_r(args);
-                break;
-            case "rm":
-                rm(args);
-                break;
-            case "mkdir":
-                mkdir(args);
-                break;
-            case "rmdir":
-                rmdir(args);
-                break;
-            case "zip":
-                zip(args, false);
-                break;
-            case "zip -r":
-                zip(args, true);
-                break;
-            case "unzip":
-                unzip(args);
-                break;
-            case "help":
-                printHelp();
-                break;
-            default:
-                System.out.println("Unknown command: " + commandName);
-                System.out.println("Type 'help' for available commands");
+            listing = new Listing();
+            if (watcher != null) {
+                try {
+                    listing.key = dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                } catch (IOException | UnsupportedOperationException e) {
+                    listing.key = null;
+                }
+            }
+            DirectoryListEvent event = new DirectoryListEvent();
+            event.begin();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path path : entries) {
+                    listing.names.add(path.getFileName().toString());
+                }
+            }
+            listing.names.sort(Comparator.naturalOrder());
+            event.record(dir, 0, listing.names.size());
+
+            if (listing.key != null) {
+                listings.put(dir, listing);
+            }
+            return listing;
         }
-    }
 
-    public void echo(String[] args) {
-        if (args == null || args.length == 0) {
-            System.out.println("echo: missing arguments");
-        } else {
-            for (int i = 0; i < args.length; i++) {
-                System.out.print("\n" + args[i]);
-                if (i < args.length - 1)
-                    System.out.print(" ");
+        // true when dir is known to exist as a directory from cached listings
+        synchronized boolean isKnownDirectory(Path dir) {
+            drainEvents();
+            if (listings.containsKey(dir)) {
+                return true;
+            }
+            Path parent = dir.getParent();
+            Listing listing = parent == null ? null : listings.get(parent);
+            if (listing == null || listing.attributes == null) {
+                return false;
             }
-            System.out.println();
+            int i = Collections.binarySearch(listing.names, dir.getFileName().toString());
+            return i >= 0 && listing.attributes[i] != null && listing.attributes[i].isDirectory();
         }
-    }
 
-    public void ls(String[] args) {
-        try {
-            if (args.length > 0) {
-                System.out.println("ls: takes no arguments");
+        synchronized void invalidate(Path dir) {
+            if (dir == null) {
                 return;
             }
-            Path dir = currentDirectory;
-            List<String> names = new ArrayList<>();
-            Path[] paths = Files.list(dir).toArray(Path[]::new);
+            Listing listing = listings.remove(dir);
+            if (listing != null) {
+                listing.key.cancel();
+            }
+        }
 
-            for (Path path : paths) {
-                try {
-                    if (Files.isReadable(path))
-                        names.add(path.getFileName().toString());
-                } catch (Exception e) {
+        synchronized void invalidateTree(Path root) {
+            invalidate(root.getParent());
+            listings.entrySet().removeIf(e -> {
+                if (e.getKey().startsWith(root)) {
+                    e.getValue().key.cancel();
+                    return true;
+                }
+                return false;
+            });
+        }
+
+        private void drainEvents() {
+            if (watcher == null) {
+                return;
+            }
+            WatchKey key;
+            while ((key = watcher.poll()) != null) {
+                key.pollEvents();
+                Listing listing = listings.get((Path) key.watchable());
+                if (listing != null && listing.key == key) {
+                    listings.remove((Path) key.watchable());
+                }
+                key.cancel();
+            }
+        }
+    }
+
+    // Bounded in-memory byte pipe between two pipeline stages.
+    static class Pipe {
+        private final byte[] buffer;
+        private int head;
+        private int count;
+        private boolean writerClosed;
+        private boolean readerClosed;
+
+        final OutputStream sink = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                Pipe.this.write(b, off, len);
+            }
+
+            @Override
+            public void close() {
+                closeWriter();
+            }
+        };
+
+        final InputStream source = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return Pipe.this.read(b, off, len);
+            }
+
+            @Override
+            public void close() {
+                closeReader();
+            }
+        };
+
+        Pipe(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        private synchronized void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                while (count == buffer.length && !readerClosed) {
+                    await();
+                }
+                if (readerClosed) {
+                    throw new IOException("Broken pipe");
+                }
+                int tail = (head + count) % buffer.length;
+                int n = Math.min(len, Math.min(buffer.length - count, buffer.length - tail));
+                System.arraycopy(b, off, buffer, tail, n);
+                count += n;
+                off += n;
+                len -= n;
+                notifyAll();
+            }
+        }
+
+        private synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (count == 0 && !writerClosed) {
+                await();
+            }
+            if (count == 0) {
+                return -1;
+            }
+            int n = Math.min(len, Math.min(count, buffer.length - head));
+            System.arraycopy(buffer, head, b, off, n);
+            head = (head + n) % buffer.length;
+            count -= n;
+            notifyAll();
+            return n;
+        }
+
+        private void await() throws InterruptedIOException {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("pipe interrupted");
+            }
+        }
+
+        private synchronized void closeWriter() {
+            writerClosed = true;
+            notifyAll();
+        }
+
+        private synchronized void closeReader() {
+            readerClosed = true;
+            notifyAll();
+        }
+    }
+
+    static final int PIPE_BUFFER = 256 * 1024;
+
+    // A command's output: 64 KB buffered in front of the console, a file or a pipe.
+    static class OutputSink extends PrintStream {
+        static final int BUFFER_SIZE = 64 * 1024;
+
+        private final OutputStream destination;
+
+        OutputSink(OutputStream destination, boolean lineFlush) {
+            super(new BufferedOutputStream(destination, BUFFER_SIZE), lineFlush);
+            this.destination = destination;
+        }
+
+        // the flushed file channel under this sink (not to be closed); null for a pipe
+        FileChannel channel() {
+            flush();
+            return destination instanceof FileOutputStream ? ((FileOutputStream) destination).getChannel() : null;
+        }
+    }
+
+    // Per-command latency histograms and file I/O byte counters (stats, time).
+    static class Metrics {
+        private static final LongAdder BYTES_READ = new LongAdder();
+        private static final LongAdder BYTES_WRITTEN = new LongAdder();
+        private static final Map<String, CommandMetrics> COMMANDS = new ConcurrentHashMap<>();
+
+        static class CommandMetrics {
+            final LatencyHistogram latency = new LatencyHistogram();
+            // file bytes read and written while the command ran; approximate
+            // when commands overlap (pipelines, worker pools of other commands)
+            final LongAdder bytes = new LongAdder();
+        }
+
+        static void read(long bytes) {
+            BYTES_READ.add(bytes);
+        }
+
+        static void written(long bytes) {
+            BYTES_WRITTEN.add(bytes);
+        }
+
+        static long bytesRead() {
+            return BYTES_READ.sum();
+        }
+
+        static long bytesWritten() {
+            return BYTES_WRITTEN.sum();
+        }
+
+        static void record(String command, long nanos, long bytes) {
+            CommandMetrics metrics = COMMANDS.computeIfAbsent(command, name -> new CommandMetrics());
+            metrics.latency.record(nanos);
+            metrics.bytes.add(bytes);
+        }
+
+        static Map<String, CommandMetrics> snapshot() {
+            return new TreeMap<>(COMMANDS);
+        }
+
+        static void reset() {
+            COMMANDS.clear();
+        }
+
+        static String formatNanos(long nanos) {
+            if (nanos < 1_000) {
+                return nanos + " ns";
+            } else if (nanos < 1_000_000) {
+                return String.format("%.1f us", nanos / 1e3);
+            } else if (nanos < 1_000_000_000) {
+                return String.format("%.1f ms", nanos / 1e6);
+            }
+            return String.format("%.2f s", nanos / 1e9);
+        }
+
+        static String formatBytes(long bytes) {
+            if (bytes < 1024) {
+                return bytes + " B";
+            } else if (bytes < 1024 * 1024) {
+                return String.format("%.1f KB", bytes / 1024.0);
+            } else if (bytes < 1024L * 1024 * 1024) {
+                return String.format("%.1f MB", bytes / (1024.0 * 1024));
+            }
+            return String.format("%.2f GB", bytes / (1024.0 * 1024 * 1024));
+        }
+    }
+
+    // Lock-free log-linear latency histogram; percentiles are within 1/64 of the value.
+    static class LatencyHistogram {
+        private static final int SUB_BUCKETS = 64;
+
+        private final AtomicLongArray counts = new AtomicLongArray(SUB_BUCKETS * 58);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            long value = Math.max(nanos, 0);
+            counts.incrementAndGet(index(value));
+            count.increment();
+            total.add(value);
+            max.accumulateAndGet(value, Math::max);
+        }
+
+        static int index(long value) {
+            if (value < 2 * SUB_BUCKETS) {
+                return (int) value;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+            return SUB_BUCKETS * shift + (int) (value >>> shift);
+        }
+
+        // the largest value that falls into the same bucket as index
+        static long highestEquivalent(int index) {
+            if (index < 2 * SUB_BUCKETS) {
+                return index;
+            }
+            int shift = index / SUB_BUCKETS - 1;
+            long lowest = (long) (index - SUB_BUCKETS * shift) << shift;
+            return lowest + (1L << shift) - 1;
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        long totalNanos() {
+            return total.sum();
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        long mean() {
+            long n = count();
+            return n == 0 ? 0 : totalNanos() / n;
+        }
+
+        long percentile(double percentile) {
+            long recorded = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                recorded += counts.get(i);
+            }
+            long target = Math.max(1, (long) Math.ceil(recorded * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= target) {
+                    return Math.min(highestEquivalent(i), max());
+                }
+            }
+            return max();
+        }
+    }
+
+    // What `time` reports: wall and CPU time, allocated bytes and file I/O. Worker
+    // threads add their allocations to a retired total as they exit.
+    static class ResourceUsage {
+        private static final LongAdder RETIRED_ALLOCATIONS = new LongAdder();
+        private static final ThreadFactory DEFAULT_FACTORY = Executors.defaultThreadFactory();
+        // the management beans are only touched once `time` has been used
+        private static volatile boolean tracking;
+
+        static final ThreadFactory WORKERS = runnable -> DEFAULT_FACTORY.newThread(() -> {
+            try {
+                runnable.run();
+            } finally {
+                retire();
+            }
+        });
+
+        private static class Beans {
+            static final java.lang.management.ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+            static final com.sun.management.ThreadMXBean ALLOCATIONS = THREADS instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported()
+                            ? (com.sun.management.ThreadMXBean) THREADS
+                            : null;
+            static final java.lang.management.OperatingSystemMXBean OS = ManagementFactory.getOperatingSystemMXBean();
+        }
+
+        long wallNanos;
+        long processCpuNanos = -1;
+        long threadCpuNanos = -1;
+        long allocatedBytes = -1;
+        long bytesRead;
+        long bytesWritten;
+
+        // called by a worker thread as it exits
+        static void retire() {
+            if (tracking && Beans.ALLOCATIONS != null) {
+                RETIRED_ALLOCATIONS.add(Beans.ALLOCATIONS.getCurrentThreadAllocatedBytes());
+            }
+            BufferArena.SHARED.retireThread();
+        }
+
+        static ResourceUsage snapshot() {
+            tracking = true;
+            ResourceUsage usage = new ResourceUsage();
+            if (Beans.OS instanceof com.sun.management.OperatingSystemMXBean) {
+                usage.processCpuNanos = ((com.sun.management.OperatingSystemMXBean) Beans.OS).getProcessCpuTime();
+            }
+            if (Beans.THREADS.isCurrentThreadCpuTimeSupported()) {
+                usage.threadCpuNanos = Beans.THREADS.getCurrentThreadCpuTime();
+            }
+            if (Beans.ALLOCATIONS != null) {
+                long allocated = RETIRED_ALLOCATIONS.sum();
+                for (long bytes : Beans.ALLOCATIONS.getThreadAllocatedBytes(Beans.THREADS.getAllThreadIds())) {
+                    if (bytes > 0) {
+                        allocated += bytes; // -1 for threads that exited meanwhile
+                    }
+                }
+                usage.allocatedBytes = allocated;
+            }
+            usage.bytesRead = Metrics.bytesRead();
+            usage.bytesWritten = Metrics.bytesWritten();
+            usage.wallNanos = System.nanoTime();
+            return usage;
+        }
+
+        String since(ResourceUsage start) {
+            return "real " + Metrics.formatNanos(wallNanos - start.wallNanos)
+                    + "  cpu " + difference(processCpuNanos, start.processCpuNanos, false)
+                    + " (shell thread " + difference(threadCpuNanos, start.threadCpuNanos, false) + ")"
+                    + "  allocated " + difference(allocatedBytes, start.allocatedBytes, true)
+                    + "  read " + Metrics.formatBytes(bytesRead - start.bytesRead)
+                    + "  written " + Metrics.formatBytes(bytesWritten - start.bytesWritten);
+        }
+
+        private static String difference(long end, long start, boolean bytes) {
+            if (end < 0 || start < 0) {
+                return "n/a";
+            }
+            return bytes ? Metrics.formatBytes(end - start) : Metrics.formatNanos(end - start);
+        }
+    }
+
+    // Size-classed pools of direct buffers and byte arrays shared by the commands that
+    // move file bytes, with per-thread caches and a cap (-Dterminal.arena.mb).
+    static final class BufferArena {
+        static final int[] CLASSES = { 8 * 1024, 64 * 1024, 256 * 1024, 1024 * 1024 };
+        static final BufferArena SHARED = new BufferArena(Long.getLong("terminal.arena.mb", 64L) * 1024 * 1024);
+
+        // slots 0.. are direct buffers by class, CLASSES.length.. byte arrays
+        private final List<Queue<Object>> pools = new ArrayList<>();
+        private final ThreadLocal<Object[]> cached = ThreadLocal.withInitial(() -> new Object[CLASSES.length * 2]);
+        private final long cap;
+        private final AtomicLong pooled = new AtomicLong();
+        private final AtomicLong inUse = new AtomicLong();
+        private final AtomicLong peak = new AtomicLong();
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+
+        BufferArena(long cap) {
+            this.cap = cap;
+            for (int i = 0; i < CLASSES.length * 2; i++) {
+                pools.add(new ConcurrentLinkedQueue<>());
+            }
+        }
+
+        // a cleared direct buffer with room for at least size bytes, its limit at size
+        ByteBuffer direct(int size) {
+            int slot = fitting(size, 0);
+            ByteBuffer buffer = (ByteBuffer) take(slot);
+            if (buffer == null) {
+                buffer = ByteBuffer.allocateDirect(slot < 0 ? size : CLASSES[slot]);
+            }
+            taken(buffer.capacity());
+            buffer.clear().limit(size);
+            return buffer;
+        }
+
+        // an array of at least size bytes, with whatever contents it had before
+        byte[] heap(int size) {
+            int slot = fitting(size, CLASSES.length);
+            byte[] bytes = (byte[]) take(slot);
+            if (bytes == null) {
+                bytes = new byte[slot < 0 ? size : CLASSES[slot - CLASSES.length]];
+            }
+            taken(bytes.length);
+            return bytes;
+        }
+
+        // only for buffers from direct(); the caller must not touch it afterwards
+        void release(ByteBuffer buffer) {
+            give(buffer, buffer.capacity(), exact(buffer.capacity(), 0));
+        }
+
+        void release(byte[] bytes) {
+            give(bytes, bytes.length, exact(bytes.length, CLASSES.length));
+        }
+
+        // Copies a stream through a pooled array; InputStream.transferTo and
+        // Files.copy allocate a new 8 KB array on every call.
+        long transfer(InputStream in, OutputStream out) throws IOException {
+            byte[] bytes = heap(64 * 1024);
+            try {
+                long total = 0;
+                int n;
+                while ((n = in.read(bytes)) != -1) {
+                    out.write(bytes, 0, n);
+                    total += n;
+                }
+                return total;
+            } finally {
+                release(bytes);
+            }
+        }
+
+        // hands the calling thread's cached buffers to the shared queues, so
+        // an exiting worker does not take them with it
+        void retireThread() {
+            Object[] slots = cached.get();
+            for (int slot = 0; slot < slots.length; slot++) {
+                if (slots[slot] != null) {
+                    pools.get(slot).add(slots[slot]);
+                }
+            }
+            cached.remove();
+        }
+
+        private Object take(int slot) {
+            if (slot < 0) {
+                misses.increment();
+                return null;
+            }
+            Object[] slots = localSlots();
+            Object buffer = slots == null ? null : slots[slot];
+            if (buffer != null) {
+                slots[slot] = null;
+            } else {
+                buffer = pools.get(slot).poll();
+                if (buffer == null) {
+                    misses.increment();
+                    return null;
+                }
+            }
+            pooled.addAndGet(-CLASSES[slot % CLASSES.length]);
+            hits.increment();
+            return buffer;
+        }
+
+        private void taken(int bytes) {
+            long now = inUse.addAndGet(bytes);
+            peak.accumulateAndGet(now, Math::max);
+        }
+
+        private void give(Object buffer, int capacity, int slot) {
+            inUse.addAndGet(-capacity);
+            if (slot < 0) {
+                return;
+            }
+            if (pooled.addAndGet(capacity) > cap) {
+                pooled.addAndGet(-capacity);
+                dropped.increment();
+                return;
+            }
+            Object[] slots = localSlots();
+            if (slots != null && slots[slot] == null) {
+                slots[slot] = buffer;
+            } else {
+                pools.get(slot).add(buffer);
+            }
+        }
+
+        // ForkJoin pool threads never retire, so they use the shared queues only
+        private Object[] localSlots() {
+            return Thread.currentThread() instanceof ForkJoinWorkerThread ? null : cached.get();
+        }
+
+        private static int fitting(int size, int offset) {
+            for (int i = 0; i < CLASSES.length; i++) {
+                if (size <= CLASSES[i]) {
+                    return offset + i;
+                }
+            }
+            return -1;
+        }
+
+        private static int exact(int capacity, int offset) {
+            for (int i = 0; i < CLASSES.length; i++) {
+                if (capacity == CLASSES[i]) {
+                    return offset + i;
+                }
+            }
+            return -1;
+        }
+
+        long hits() {
+            return hits.sum();
+        }
+
+        long misses() {
+            return misses.sum();
+        }
+
+        long dropped() {
+            return dropped.sum();
+        }
+
+        long inUseBytes() {
+            return inUse.get();
+        }
+
+        long peakBytes() {
+            return peak.get();
+        }
+
+        long pooledBytes() {
+            return pooled.get();
+        }
+
+        long capBytes() {
+            return cap;
+        }
+
+        void reset() {
+            hits.reset();
+            misses.reset();
+            dropped.reset();
+            peak.set(inUse.get());
+        }
+    }
+
+    // A line started with a trailing &. kill only sets `killed`; the command
+    // notices it between files, so no file is left half written.
+    static class Job {
+        static final int RUNNING = -1;
+
+        final int id;
+        final String command;
+        Thread thread;
+        volatile boolean killed;
+        private volatile int status = RUNNING;
+
+        Job(int id, String command) {
+            this.id = id;
+            this.command = command;
+        }
+
+        void finish(int status) {
+            this.status = status;
+        }
+
+        boolean isDone() {
+            return status != RUNNING;
+        }
+
+        int await() throws InterruptedException {
+            thread.join();
+            return status;
+        }
+
+        String describe() {
+            String state = !isDone() ? (killed ? "Killing" : "Running")
+                    : killed ? "Killed" : status == 0 ? "Done" : "Exit " + status;
+            return String.format("[%d]  %-8s %s", id, state, command);
+        }
+    }
+
+    // Jobs by number. Numbers start again at 1 once every job is gone.
+    static class JobTable {
+        private final TreeMap<Integer, Job> jobs = new TreeMap<>();
+
+        synchronized Job add(String command) {
+            Job job = new Job(jobs.isEmpty() ? 1 : jobs.lastKey() + 1, command);
+            jobs.put(job.id, job);
+            return job;
+        }
+
+        // "2" or "%2"
+        synchronized Job find(String spec) {
+            try {
+                return jobs.get(Integer.parseInt(spec.startsWith("%") ? spec.substring(1) : spec));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        synchronized Job latest() {
+            return jobs.isEmpty() ? null : jobs.lastEntry().getValue();
+        }
+
+        synchronized List<Job> all() {
+            return new ArrayList<>(jobs.values());
+        }
+
+        synchronized void remove(Job job) {
+            jobs.remove(job.id);
+        }
+
+        synchronized List<Job> removeFinished() {
+            List<Job> finished = new ArrayList<>();
+            for (Iterator<Job> it = jobs.values().iterator(); it.hasNext();) {
+                Job job = it.next();
+                if (job.isDone()) {
+                    finished.add(job);
+                    it.remove();
+                }
+            }
+            return finished;
+        }
+
+        synchronized int running() {
+            int running = 0;
+            for (Job job : jobs.values()) {
+                if (!job.isDone()) {
+                    running++;
+                }
+            }
+            return running;
+        }
+
+        void awaitAll() {
+            for (Job job : all()) {
+                try {
+                    job.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    // Flight Recorder events for file-system work; free unless a recording is running.
+    @Category({ "Terminal", "File System" })
+    abstract static class FileEvent extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Entries")
+        long entries;
+
+        void record(Path path, long bytes, long entries) {
+            if (shouldCommit()) {
+                this.path = path.toString();
+                this.bytes = bytes;
+                this.entries = entries;
+                commit();
+            }
+        }
+    }
+
+    @Name("terminal.FileRead")
+    @Label("File Read")
+    @Description("A file (or one window of it) read by cat, wc, head, tail or grep")
+    static class FileReadEvent extends FileEvent {
+    }
+
+    @Name("terminal.FileCopy")
+    @Label("File Copy")
+    @Description("One file copied by cp or cp -r; path is the source")
+    static class FileCopyEvent extends FileEvent {
+        @Label("Destination")
+        String destination;
+    }
+
+    @Name("terminal.DirectoryList")
+    @Label("Directory List")
+    @Description("A directory read by ls (listing cache misses only) or scanned by rmdir")
+    static class DirectoryListEvent extends FileEvent {
+    }
+
+    @Name("terminal.ZipEntry")
+    @Label("Zip Entry")
+    @Description("One file compressed (or stored) for an archive; bytes is the uncompressed size")
+    static class ZipEntryEvent extends FileEvent {
+        @Label("Compressed Bytes")
+        @DataAmount
+        long compressedBytes;
+    }
+
+    @Name("terminal.UnzipEntry")
+    @Label("Unzip Entry")
+    @Description("One archive entry extracted to path; bytes is the extracted size")
+    static class UnzipEntryEvent extends FileEvent {
+        @Label("Compressed Bytes")
+        @DataAmount
+        long compressedBytes;
+    }
+
+    @Name("terminal.Archive")
+    @Label("Archive")
+    @Description("A whole zip, zip -u or unzip run; bytes is the archive size")
+    static class ArchiveEvent extends FileEvent {
+        @Label("Operation")
+        String operation;
+    }
+
+    private Path currentDirectory;
+    private Parser parser = new Parser();
+    private final ListingCache listingCache;
+    // raw standard output, written only through per-command OutputSinks
+    private final OutputStream console;
+    private final boolean lineFlush;
+    // the sink of the running command, and the piped input of a pipeline
+    // stage (null when commands read from the interactive console)
+    private PrintStream out;
+    private final InputStream in;
+    // batch runs print no prompts or "Now in:" lines
+    private boolean interactive = true;
+    // background jobs, shared by every terminal of the session, and the job
+    // this terminal runs for (null in the foreground)
+    private final JobTable jobs;
+    private final Job job;
+    // exit status of the last command: 0 on success, 1 when it failed
+    private int status;
+    // chunk buffers for streaming file contents (cat, head, tail, wc), taken
+    // from the buffer arena on first use and returned when the command ends
+    private ByteBuffer ioBuffer;
+    private byte[] ioBytes;
+
+    public Terminal() {
+        this.currentDirectory = Paths.get(System.getProperty("user.dir")).toAbsolutePath().normalize();
+        this.listingCache = new ListingCache();
+        this.console = new FileOutputStream(FileDescriptor.out);
+        this.lineFlush = System.console() != null;
+        this.out = new OutputSink(console, true);
+        this.in = null;
+        this.jobs = new JobTable();
+        this.job = null;
+    }
+
+    // a terminal for one pipeline stage or background job, sharing its parent's caches
+    private Terminal(Terminal parent, PrintStream out, InputStream in, Job job) {
+        this.currentDirectory = parent.currentDirectory;
+        this.listingCache = parent.listingCache;
+        this.console = parent.console;
+        // a new job writes to the console as its parent does; stages write to pipes
+        this.lineFlush = job != parent.job && parent.lineFlush;
+        this.out = out;
+        this.in = in;
+        this.interactive = parent.interactive;
+        this.jobs = parent.jobs;
+        this.job = job;
+    }
+
+    public void open() {
+        Scanner input = new Scanner(System.in);
+        while (true) {
+            // notices and the prompt share the console sink with command output
+            for (Job finished : jobs.removeFinished()) {
+                out.println(finished.describe());
+            }
+            String prompt = currentDirectory.getFileName() != null ? currentDirectory.getFileName().toString()
+                    : currentDirectory.toString();
+            out.print(prompt + " > ");
+            out.flush();
+            if (!input.hasNextLine()) {
+                break;
+            }
+            String userInput = input.nextLine();
+            if (userInput.equals("exit")) {
+                break;
+            }
+            runLine(userInput);
+        }
+        int running = jobs.running();
+        if (running > 0) {
+            out.println("Waiting for " + running + " background job(s) to finish...");
+            out.flush();
+            jobs.awaitAll();
+        }
+        out.println("Goodbye!");
+        out.flush();
+        input.close();
+    }
+
+    // Runs commands from a script without prompts; returns 1 if any command failed.
+    public int runBatch(BufferedReader script, boolean stopOnError) throws IOException {
+        interactive = false;
+        int exitStatus = 0;
+        String line;
+        while ((line = script.readLine()) != null) {
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            if (line.equals("exit")) {
+                break;
+            }
+            status = 0;
+            runLine(line);
+            if (status != 0) {
+                exitStatus = status;
+                if (stopOnError) {
+                    break;
+                }
+            }
+        }
+        // background jobs still running are finished rather than cut off by exit
+        jobs.awaitAll();
+        return exitStatus;
+    }
+
+    private void runLine(String line) {
+        try {
+            if (parser.parse(line)) {
+                this.chooseCommandAction(parser);
+            }
+        } catch (IllegalArgumentException e) {
+            runWithSink(() -> fail("terminal: " + e.getMessage()), new OutputSink(console, lineFlush));
+        } finally {
+            parser.clear();
+        }
+    }
+
+    // splits a -c argument on ';' outside quotes, one command per line
+    static String splitCommands(String commands) {
+        StringBuilder sb = new StringBuilder(commands.length());
+        char quote = 0;
+        for (int i = 0; i < commands.length(); i++) {
+            char c = commands.charAt(i);
+            if (quote == 0 && (c == '"' || c == '\'')) {
+                quote = c;
+            } else if (c == quote) {
+                quote = 0;
+            }
+            sb.append(c == ';' && quote == 0 ? '\n' : c);
+        }
+        return sb.toString();
+    }
+
+    // prints a command's error message and marks the command as failed
+    private void fail(String message) {
+        out.println(message);
+        status = 1;
+    }
+
+    // Splits the line into pipeline stages, an optional > or >> target and a trailing &.
+    public void chooseCommandAction(Parser parser) {
+        List<String[]> stages = new ArrayList<>();
+        List<String> current = new ArrayList<>();
+        String outputFile = null;
+        boolean append = false;
+        boolean background = false;
+        String syntaxError = null;
+
+        for (int i = 0; i < parser.size() && syntaxError == null; i++) {
+            byte kind = parser.kind(i);
+            if (kind == Parser.WORD) {
+                String pattern = parser.pattern(i);
+                if (pattern != null && expandsArguments(current, stages.isEmpty())) {
+                    Glob.expand(currentDirectory, pattern, current);
+                } else {
+                    current.add(parser.token(i));
+                }
+            } else if (kind == Parser.PIPE) {
+                if (current.isEmpty()) {
+                    syntaxError = "'|'";
+                }
+                stages.add(current.toArray(new String[0]));
+                current.clear();
+            } else if (kind == Parser.BACKGROUND) {
+                if (i != parser.size() - 1) {
+                    syntaxError = "'&'";
+                }
+                background = true;
+            } else if (outputFile != null) {
+                syntaxError = "'" + Parser.symbol(kind) + "'";
+            } else if (i + 1 >= parser.size() || parser.kind(i + 1) != Parser.WORD) {
+                syntaxError = i + 1 < parser.size() ? "'" + Parser.symbol(parser.kind(i + 1)) + "'" : "'newline'";
+            } else {
+                outputFile = parser.token(++i);
+                append = kind == Parser.APPEND;
+            }
+        }
+        if (syntaxError == null && current.isEmpty()) {
+            syntaxError = stages.isEmpty() ? (background ? "'&'" : "'newline'") : "'|'";
+        }
+        if (syntaxError != null) {
+            String token = syntaxError;
+            runWithSink(() -> fail("syntax error near unexpected token " + token), new OutputSink(console, lineFlush));
+            return;
+        }
+        stages.add(current.toArray(new String[0]));
+
+        // `time cmd ...` reports on the whole line: every pipeline stage and the redirection
+        boolean timed = stages.get(0)[0].equalsIgnoreCase("time");
+        if (timed) {
+            String[] first = stages.get(0);
+            if (first.length == 1) {
+                runWithSink(() -> fail("time: missing command"), new OutputSink(console, lineFlush));
+                return;
+            }
+            stages.set(0, Arrays.copyOfRange(first, 1, first.length));
+        }
+
+        if (background) {
+            startJob(parser.line(), stages, outputFile, append, timed);
+        } else {
+            runStages(stages, outputFile, append, timed);
+        }
+    }
+
+    // commands that match their own patterns get their arguments unexpanded
+    static final Set<String> LITERAL_ARGUMENTS = Set.of("find", "unzip", "rmdir");
+
+    // whether the next word of the stage is glob-expanded: not the command
+    // name itself, and not for the commands above
+    private static boolean expandsArguments(List<String> stage, boolean firstStage) {
+        int command = firstStage && !stage.isEmpty() && stage.get(0).equalsIgnoreCase("time") ? 1 : 0;
+        return stage.size() > command
+                && !LITERAL_ARGUMENTS.contains(stage.get(command).toLowerCase(Locale.ROOT));
+    }
+
+    private void runStages(List<String[]> stages, String outputFile, boolean append, boolean timed) {
+        Runnable action;
+        if (stages.size() > 1) {
+            action = () -> runPipeline(stages);
+        } else {
+            String[] argv = stages.get(0);
+            action = () -> executeCommand(argv[0], Arrays.copyOfRange(argv, 1, argv.length));
+        }
+
+        ResourceUsage before = timed ? ResourceUsage.snapshot() : null;
+        if (outputFile != null) {
+            executeWithRedirection(action, outputFile, append);
+        } else {
+            runWithSink(action, new OutputSink(console, lineFlush));
+        }
+        if (timed) {
+            String usage = ResourceUsage.snapshot().since(before);
+            runWithSink(() -> out.println(usage), new OutputSink(console, lineFlush));
+        }
+    }
+
+    // Runs the line in the background in a child terminal with its own working directory.
+    private void startJob(String line, List<String[]> stages, String outputFile, boolean append, boolean timed) {
+        String command = line.strip();
+        if (command.endsWith("&")) {
+            command = command.substring(0, command.length() - 1).strip();
+        }
+        Job job = jobs.add(command);
+        Terminal child = new Terminal(this, new OutputSink(console, lineFlush), null, job);
+        Thread thread = new Thread(() -> {
+            try {
+                child.runStages(stages, outputFile, append, timed);
+            } finally {
+                ResourceUsage.retire();
+                job.finish(child.status);
+            }
+        }, "job-" + job.id);
+        thread.setDaemon(true);
+        job.thread = thread;
+        if (interactive) {
+            out.println("[" + job.id + "] " + command);
+            out.flush();
+        }
+        thread.start();
+    }
+
+    // true once `kill` was used on the job this terminal runs for; long
+    // commands check it between files and stop with "<command>: cancelled"
+    private boolean cancelled() {
+        return job != null && job.killed;
+    }
+
+    private void runWithSink(Runnable action, OutputSink sink) {
+        PrintStream previous = out;
+        out = sink;
+        try {
+            action.run();
+        } finally {
+            sink.flush();
+            out = previous;
+        }
+    }
+
+    // Runs `a | b | c`, each stage on its own thread, connected by bounded pipes.
+    private void runPipeline(List<String[]> stages) {
+        List<Thread> threads = new ArrayList<>();
+        Terminal lastStage = null;
+        InputStream stageIn = null;
+        for (int i = 0; i < stages.size(); i++) {
+            boolean last = i == stages.size() - 1;
+            Pipe pipe = last ? null : new Pipe(PIPE_BUFFER);
+            PrintStream stageOut = last ? out : new OutputSink(pipe.sink, false);
+            Terminal stage = new Terminal(this, stageOut, stageIn, job);
+            lastStage = stage;
+            String[] argv = stages.get(i);
+            String stageName = argv[0];
+            String[] stageArguments = Arrays.copyOfRange(argv, 1, argv.length);
+            InputStream input = stageIn;
+
+            Thread thread = new Thread(() -> {
+                try {
+                    stage.executeCommand(stageName, stageArguments);
+                } finally {
+                    ResourceUsage.retire();
+                    if (last) {
+                        stageOut.flush();
+                    } else {
+                        stageOut.close();
+                    }
+                    if (input != null) {
+                        try {
+                            input.close();
+                        } catch (IOException e) {
+                            // in-memory pipe, nothing to release
+                        }
+                    }
+                }
+            }, "pipe-" + i + "-" + stageName);
+            thread.setDaemon(true);
+            threads.add(thread);
+            stageIn = last ? null : pipe.source;
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            status = lastStage.status;
+        } catch (InterruptedException e) {
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void executeWithRedirection(Runnable action, String outputFile, boolean append) {
+        try {
+            if (outputFile.length() >= 2 &&
+                    (outputFile.charAt(0) == '"') &&
+                    (outputFile.charAt(outputFile.length() - 1) == '"')) {
+                outputFile = outputFile.substring(1, outputFile.length() - 1);
+            }
+
+            Path outputPath = Paths.get(outputFile);
+            if (!outputPath.isAbsolute()) {
+                outputPath = currentDirectory.resolve(outputFile).normalize();
+            }
+
+            Path parentDir = outputPath.getParent();
+            if (parentDir != null && !Files.exists(parentDir)) {
+                Files.createDirectories(parentDir);
+            }
+
+            listingCache.invalidate(outputPath.getParent());
+            try (FileOutputStream file = new FileOutputStream(outputPath.toFile(), append)) {
+                long start = file.getChannel().position();
+                runWithSink(action, new OutputSink(file, false));
+                Metrics.written(file.getChannel().position() - start);
+            }
+        } catch (FileNotFoundException e) {
+            System.err.println("Error: Cannot create output file: " + outputFile);
+            status = 1;
+        } catch (IOException e) {
+            System.err.println("Error: Cannot create directory for output file: " + e.getMessage());
+            status = 1;
+        }
+    }
+
+    // a shell command; receives the arguments after the command name and
+    // parses its own flags
+    interface Command {
+        void run(Terminal terminal, String[] args);
+    }
+
+    private static final Map<String, Command> COMMANDS = new HashMap<>();
+
+    static {
+        COMMANDS.put("echo", Terminal::echo);
+        COMMANDS.put("cd", (terminal, args) -> {
+            terminal.cd(args);
+            if (terminal.interactive) {
+                terminal.out.println("Now in: " + terminal.getCurrentDirectory());
+            }
+        });
+        COMMANDS.put("pwd", Terminal::pwd);
+        COMMANDS.put("ls", Terminal::ls);
+        COMMANDS.put("wc", Terminal::wc);
+        COMMANDS.put("touch", Terminal::touch);
+        COMMANDS.put("cat", Terminal::cat);
+        COMMANDS.put("head", Terminal::head);
+        COMMANDS.put("tail", Terminal::tail);
+        COMMANDS.put("find", Terminal::find);
+        COMMANDS.put("grep", Terminal::grep);
+        COMMANDS.put("cp", Terminal::cp);
+        COMMANDS.put("sync", Terminal::sync);
+        COMMANDS.put("rm", Terminal::rm);
+        COMMANDS.put("mkdir", Terminal::mkdir);
+        COMMANDS.put("rmdir", Terminal::rmdir);
+        COMMANDS.put("zip", Terminal::zip);
+        COMMANDS.put("unzip", Terminal::unzip);
+        COMMANDS.put("stats", Terminal::stats);
+        COMMANDS.put("io", Terminal::io);
+        COMMANDS.put("jobs", Terminal::jobs);
+        COMMANDS.put("fg", Terminal::fg);
+        COMMANDS.put("wait", Terminal::waitJobs);
+        COMMANDS.put("kill", Terminal::kill);
+        COMMANDS.put("help", (terminal, args) -> terminal.printHelp());
+    }
+
+    private void executeCommand(String commandName, String[] args) {
+        Command command = COMMANDS.get(commandName.toLowerCase(Locale.ROOT));
+        if (command == null) {
+            fail("Unknown command: " + commandName);
+            out.println("Type 'help' for available commands");
+            return;
+        }
+        long start = System.nanoTime();
+        long io = Metrics.bytesRead() + Metrics.bytesWritten();
+        try {
+            command.run(this, args);
+        } finally {
+            releaseIoBuffers();
+            long bytes = Metrics.bytesRead() + Metrics.bytesWritten() - io;
+            Metrics.record(commandName.toLowerCase(Locale.ROOT), System.nanoTime() - start, bytes);
+        }
+    }
+
+    private ByteBuffer ioBuffer() {
+        if (ioBuffer == null) {
+            ioBuffer = BufferArena.SHARED.direct(64 * 1024);
+        }
+        return ioBuffer;
+    }
+
+    private byte[] ioBytes() {
+        if (ioBytes == null) {
+            ioBytes = BufferArena.SHARED.heap(64 * 1024);
+        }
+        return ioBytes;
+    }
+
+    private void releaseIoBuffers() {
+        if (ioBuffer != null) {
+            BufferArena.SHARED.release(ioBuffer);
+            ioBuffer = null;
+        }
+        if (ioBytes != null) {
+            BufferArena.SHARED.release(ioBytes);
+            ioBytes = null;
+        }
+    }
+
+    public void echo(String[] args) {
+        if (args == null || args.length == 0) {
+            fail("echo: missing arguments");
+        } else {
+            for (int i = 0; i < args.length; i++) {
+                out.print("\n" + args[i]);
+                if (i < args.length - 1)
+                    out.print(" ");
+            }
+            out.println();
+        }
+    }
+
+    public void ls(String[] args) {
+        Flags flags;
+        try {
+            flags = Flags.parse(args == null ? new String[0] : args, "laStR", "");
+        } catch (IllegalArgumentException e) {
+            fail("ls: " + e.getMessage());
+            return;
+        }
+
+        List<String> targets = flags.operands().isEmpty() ? List.of(".") : flags.operands();
+        boolean headers = targets.size() > 1 || flags.has('R');
+        for (int i = 0; i < targets.size(); i++) {
+            String target = targets.get(i);
+            if (target.length() >= 2 &&
+                    (target.charAt(0) == '"') &&
+                    (target.charAt(target.length() - 1) == '"')) {
+                target = target.substring(1, target.length() - 1);
+            }
+            Path dir = currentDirectory.resolve(target).normalize();
+            if (i > 0) {
+                out.println();
+            }
+            try {
+                listDirectory(dir, target, flags, headers);
+            } catch (Exception e) {
+                fail("ls: cannot access directory " + dir);
+            }
+            if (cancelled()) {
+                fail("ls: cancelled");
+                return;
+            }
+        }
+    }
+
+    static final int LS_CHUNK = 4096;
+
+    private static class LsTime {
+        static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("MMM dd HH:mm", Locale.ENGLISH);
+    }
+
+    // Stats and prints entries LS_CHUNK at a time; -S and -t need every attribute first.
+    private void listDirectory(Path dir, String label, Flags flags, boolean header) throws IOException {
+        ListingCache.Listing listing = listingCache.get(dir);
+        boolean longFormat = flags.has('l');
+        boolean bySize = flags.has('S');
+        boolean byTime = flags.has('t') && !bySize;
+        boolean needAttributes = longFormat || bySize || byTime || flags.has('R');
+
+        List<Integer> visible = new ArrayList<>();
+        for (int i = 0; i < listing.names.size(); i++) {
+            if (flags.has('a') || !listing.names.get(i).startsWith(".")) {
+                visible.add(i);
+            }
+        }
+
+        if (header) {
+            out.println(label + ":");
+        }
+
+        if (bySize || byTime) {
+            listing.loadAttributes(dir, 0, listing.names.size());
+            BasicFileAttributes[] attributes = listing.attributes;
+            Comparator<Integer> order = bySize
+                    ? Comparator.comparingLong(i -> attributes[i] == null ? 0 : -attributes[i].size())
+                    : Comparator.comparingLong(i -> attributes[i] == null ? 0 : -attributes[i].lastModifiedTime().toMillis());
+            visible.sort(order);
+        }
+
+        for (int start = 0; start < visible.size(); start += LS_CHUNK) {
+            List<Integer> chunk = visible.subList(start, Math.min(start + LS_CHUNK, visible.size()));
+            if (needAttributes && !bySize && !byTime) {
+                listing.loadAttributes(dir, chunk.get(0), chunk.get(chunk.size() - 1) + 1);
+            }
+            for (int i : chunk) {
+                String name = listing.names.get(i);
+                out.println(longFormat ? formatLong(name, listing.attributes[i]) : name);
+            }
+            out.flush();
+        }
+
+        if (flags.has('R')) {
+            for (int i : visible) {
+                if (cancelled()) {
+                    return;
+                }
+                BasicFileAttributes attrs = listing.attributes[i];
+                String name = listing.names.get(i);
+                if (attrs != null && attrs.isDirectory() && !name.equals(".") && !name.equals("..")) {
+                    out.println();
+                    listDirectory(dir.resolve(name), label + "/" + name, flags, true);
+                }
+            }
+        }
+    }
+
+    private static String formatLong(String name, BasicFileAttributes attrs) {
+        if (attrs == null) {
+            return "?????????? ? ? ? ? " + name;
+        }
+        char type = attrs.isDirectory() ? 'd' : attrs.isSymbolicLink() ? 'l' : attrs.isRegularFile() ? '-' : '?';
+        String permissions = "?????????";
+        String owner = "?";
+        String group = "?";
+        if (attrs instanceof PosixFileAttributes) {
+            PosixFileAttributes posix = (PosixFileAttributes) attrs;
+            permissions = PosixFilePermissions.toString(posix.permissions());
+            owner = posix.owner().getName();
+            group = posix.group().getName();
+        }
+        String time = LsTime.FORMAT.format(attrs.lastModifiedTime().toInstant().atZone(ZoneId.systemDefault()));
+        return String.format("%c%s %-8s %-8s %10d %s %s", type, permissions, owner, group, attrs.size(), time, name);
+    }
+
+    // --- CD change directory ---
+    public void cd(String[] args) {
+        if (args != null && args.length > 1) {
+            fail("cd: takes 1 or no arguments");
+            return;
+        }
+
+        if (args == null || args.length == 0) {
+            Path home = Paths.get(System.getProperty("user.home"));
+            currentDirectory = home.toAbsolutePath().normalize();
+            return;
+        }
+
+        String target = args[0];
+
+        if (target.length() >= 2 &&
+                (target.charAt(0) == '"') &&
+                (target.charAt(target.length() - 1) == '"')) {
+            target = target.substring(1, target.length() - 1);
+        }
+
+        if (target.equals("..")) {
+            Path parent = currentDirectory.getParent();
+            if (parent != null)
+                currentDirectory = parent.normalize();
+            return;
+        }
+
+        try {
+            Path temp = Paths.get(target);
+            Path final_path;
+
+            if (temp.isAbsolute())
+                final_path = temp;
+            else
+                final_path = currentDirectory.resolve(temp);
+
+            final_path = final_path.toAbsolutePath().normalize();
+
+            if (final_path.equals(currentDirectory)) {
+                out.println("Already in: " + currentDirectory);
+                return;
+            }
+
+            if (listingCache.isKnownDirectory(final_path)
+                    || (Files.exists(final_path) && Files.isDirectory(final_path))) {
+                currentDirectory = final_path;
+
+            } else {
+                fail("cd: cannot change directory '" + target + "': No such directory");
+            }
+        } catch (InvalidPathException e) {
+            fail("cd: failed to change directory '" + target + "': Invalid path");
+        }
+    }
+
+    // --- rm Remove ---
+    // rm [-r] [-j N] <path...>
+    public void rm(String[] args) {
+        Flags flags;
+        int threads;
+        try {
+            flags = Flags.parse(args == null ? new String[0] : args, "r", "j");
+            threads = flags.intValue('j', Runtime.getRuntime().availableProcessors());
+        } catch (IllegalArgumentException e) {
+            fail("rm: " + e.getMessage());
+            return;
+        }
+        if (flags.operands().isEmpty()) {
+            fail("rm: usage: rm [-r] [-j N] <file...> (-r removes directories and their contents)");
+            return;
+        }
+
+        for (String name : flags.operands()) {
+            if (cancelled()) {
+                fail("rm: cancelled");
+                return;
+            }
+            if (name.length() >= 2 &&
+                    (name.charAt(0) == '"') &&
+                    (name.charAt(name.length() - 1) == '"')) {
+                name = name.substring(1, name.length() - 1);
+            }
+
+            try {
+                Path target = Paths.get(name);
+                Path file_Path;
+
+                if (target.isAbsolute())
+                    file_Path = target;
+                else
+                    file_Path = currentDirectory.resolve(target);
+
+                if (!Files.exists(file_Path, LinkOption.NOFOLLOW_LINKS)) {
+                    fail("rm: cannot remove '" + name + "': No such file or directory");
+                    continue;
+                }
+                if (Files.isDirectory(file_Path, LinkOption.NOFOLLOW_LINKS)) {
+                    if (!flags.has('r')) {
+                        fail("Cannot delete directory: " + name + " (use rm -r)");
+                    } else if (currentDirectory.startsWith(file_Path.normalize())) {
+                        fail("rm: refusing to remove '" + name + "': it contains the current directory");
+                    } else {
+                        removeTree(file_Path.normalize(), name, threads);
+                    }
+                    continue;
+                }
+                if (!flags.has('r') && !Files.isRegularFile(file_Path)) {
+                    fail("rm: cannot remove '" + name + "': Not a regular file");
+                    continue;
+                }
+
+                Files.delete(file_Path);
+                listingCache.invalidate(file_Path.getParent());
+            } catch (NoSuchFileException e) {
+                fail("rm: cannot remove '" + name + "': No such file or directory");
+            } catch (InvalidPathException e) {
+                fail("rm: failed to remove '" + name + "': Invalid path");
+            } catch (IOException e) {
+                fail("rm: cannot remove '" + name + "': " + e.getMessage());
+            }
+        }
+    }
+
+    private void removeTree(Path root, String name, int threads) {
+        long start = System.nanoTime();
+        RecursiveDelete delete = new RecursiveDelete(threads, this::cancelled);
+        try {
+            delete.run(root);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            listingCache.invalidateTree(root);
+            listingCache.invalidate(root.getParent());
+        }
+        for (String error : delete.errors) {
+            fail("rm: cannot remove " + error);
+        }
+        if (cancelled()) {
+            fail("rm: cancelled after removing " + delete.removed.sum() + " entries");
+            return;
+        }
+        if (delete.errors.isEmpty()) {
+            double seconds = Math.max((System.nanoTime() - start) / 1e9, 1e-9);
+            out.printf("Removed %s (%d entries) in %.2f s, %d threads%n", name, delete.removed.sum(), seconds, threads);
+        }
+    }
+
+    // Parallel post-order delete for rm -r: a directory is removed as soon as the last
+    // task under it finishes. Links are removed, never followed.
+    static class RecursiveDelete {
+        static final int BATCH = 256;
+
+        private final int threads;
+        private final BooleanSupplier cancelled;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private ThreadPoolExecutor pool;
+        final LongAdder removed = new LongAdder();
+        final Queue<String> errors = new ConcurrentLinkedQueue<>();
+
+        private static final class Node {
+            final Path dir;
+            final Node parent;
+            // starts at 1 for the listing of the directory itself
+            final AtomicInteger pending = new AtomicInteger(1);
+            volatile boolean failed;
+
+            Node(Path dir, Node parent) {
+                this.dir = dir;
+                this.parent = parent;
+            }
+        }
+
+        RecursiveDelete(int threads, BooleanSupplier cancelled) {
+            this.threads = threads;
+            this.cancelled = cancelled;
+        }
+
+        void run(Path root) throws InterruptedException {
+            pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                    ResourceUsage.WORKERS);
+            try {
+                Node node = new Node(root, null);
+                pool.execute(() -> list(node));
+                done.await();
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        private void list(Node node) {
+            List<Path> batch = new ArrayList<>(BATCH);
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(node.dir)) {
+                for (Path entry : entries) {
+                    if (cancelled.getAsBoolean()) {
+                        node.failed = true;
+                        break;
+                    }
+                    batch.add(entry);
+                    if (batch.size() == BATCH) {
+                        submit(node, batch);
+                        batch = new ArrayList<>(BATCH);
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                errors.add("'" + node.dir + "': " + e.getMessage());
+                node.failed = true;
+            }
+            if (!batch.isEmpty() && !node.failed) {
+                submit(node, batch);
+            }
+            finish(node);
+        }
+
+        private void submit(Node node, List<Path> batch) {
+            node.pending.incrementAndGet();
+            pool.execute(() -> delete(node, batch));
+        }
+
+        private void delete(Node node, List<Path> batch) {
+            for (Path entry : batch) {
+                if (cancelled.getAsBoolean()) {
+                    node.failed = true;
+                    break;
+                }
+                try {
+                    Files.delete(entry);
+                    removed.increment();
+                } catch (DirectoryNotEmptyException e) {
+                    Node child = new Node(entry, node);
+                    node.pending.incrementAndGet();
+                    pool.execute(() -> list(child));
+                } catch (NoSuchFileException e) {
+                    // already gone
+                } catch (IOException e) {
+                    errors.add("'" + entry + "': " + e.getMessage());
+                    node.failed = true;
+                }
+            }
+            finish(node);
+        }
+
+        // closes one of the node's open tasks; the last one removes the
+        // directory and closes the parent's task in turn
+        private void finish(Node node) {
+            if (node.pending.decrementAndGet() > 0) {
+                return;
+            }
+            if (!node.failed) {
+                try {
+                    Files.delete(node.dir);
+                    removed.increment();
+                } catch (NoSuchFileException e) {
+                    // already gone
+                } catch (IOException e) {
+                    errors.add("'" + node.dir + "': " + e.getMessage());
+                    node.failed = true;
+                }
+            }
+            if (node.parent == null) {
+                done.countDown();
+                return;
+            }
+            if (node.failed) {
+                node.parent.failed = true;
+            }
+            finish(node.parent);
+        }
+    }
+
+    // --- CP ------
+    public void cp(String[] args) {
+        Flags flags;
+        try {
+            flags = Flags.parse(args == null ? new String[0] : args, "r", "j");
+        } catch (IllegalArgumentException e) {
+            fail("cp: " + e.getMessage());
+            return;
+        }
+        if (flags.has('r')) {
+            cp_r(flags);
+            return;
+        }
+        List<String> operands = flags.operands();
+        if (operands.size() > 2 || (operands.size() == 2
+                && Files.isDirectory(currentDirectory.resolve(stripQuotes(operands.get(1)))))) {
+            int threads;
+            try {
+                threads = flags.intValue('j', 1);
+            } catch (IllegalArgumentException e) {
+                fail("cp: " + e.getMessage());
+                return;
+            }
+            copyInto(operands.subList(0, operands.size() - 1), operands.get(operands.size() - 1), threads);
+            return;
+        }
+        args = operands.toArray(new String[0]);
+        if (args.length != 2) {
+            fail("cp: takes 2 arguments cp <source> <destination> or cp <file...> <directory>");
+            return;
+        }
+
+        String source_Str = args[0];
+        String destination_Str = args[1];
+
+        if ((source_Str.charAt(0) == '"') && (source_Str.charAt(source_Str.length() - 1) == '"')) {
+            source_Str = source_Str.substring(1, source_Str.length() - 1);
+        }
+
+        if ((destination_Str.charAt(0) == '"') && (destination_Str.charAt(destination_Str.length() - 1) == '"')) {
+            destination_Str = destination_Str.substring(1, destination_Str.length() - 1);
+        }
+
+        try {
+            Path src = Paths.get(source_Str);
+            Path dest = Paths.get(destination_Str);
+
+            if (!src.isAbsolute())
+                src = currentDirectory.resolve(src);
+            if (!dest.isAbsolute())
+                dest = currentDirectory.resolve(dest);
+
+            src = src.toAbsolutePath().normalize();
+            dest = dest.toAbsolutePath().normalize();
+
+            if (!Files.exists(src)) {
+                fail("Source file does not exist: " + source_Str);
+                return;
+            }
+
+            if (!Files.isRegularFile(src)) {
+                fail("cp: cannot copy '" + source_Str + "': Not a regular file");
+                return;
+            }
+
+            if (!Files.exists(dest)) {
+                fail("Destination file does not exist: " + destination_Str);
+                return;
+            }
+
+            if (!Files.isWritable(dest)) {
+                fail("Destination file is not writable: " + destination_Str);
+                return;
+            }
+
+            if (Files.isSameFile(src, dest)) {
+                fail("Source and destination files are the same");
+                return;
+            }
+
+            Path parent = dest.getParent();
+            if (parent != null && !Files.exists(parent)) {
+                fail("cp: failed to copy '" + source_Str + "': Destination directory does not exist");
+                return;
+            }
+
+            copyFile(src, dest, Files.size(src), true, true);
+            listingCache.invalidate(dest.getParent());
+
+        } catch (Exception e) {
+            fail("cp: failed to copy '" + source_Str + "': " + e.getMessage());
+        }
+    }
+
+    private static String stripQuotes(String name) {
+        if (name.length() >= 2 && name.charAt(0) == '"' && name.charAt(name.length() - 1) == '"') {
+            return name.substring(1, name.length() - 1);
+        }
+        return name;
+    }
+
+    // cp [-j N] <file...> <dir>: copies the files into dir, N at a time
+    private void copyInto(List<String> sources, String directoryName, int threads) {
+        Path directory = currentDirectory.resolve(stripQuotes(directoryName)).normalize();
+        if (!Files.isDirectory(directory)) {
+            fail("cp: target '" + directoryName + "' is not a directory");
+            return;
+        }
+        ThreadPoolExecutor pool = threads > 1 ? new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 64), ResourceUsage.WORKERS, new ThreadPoolExecutor.CallerRunsPolicy())
+                : null;
+        Queue<String> errors = new ConcurrentLinkedQueue<>();
+        try {
+            for (String sourceName : sources) {
+                if (cancelled()) {
+                    break;
+                }
+                String name = stripQuotes(sourceName);
+                Path source = currentDirectory.resolve(name).normalize();
+                if (!Files.isRegularFile(source)) {
+                    fail(Files.exists(source) ? "cp: cannot copy '" + name + "': Not a regular file (use cp -r)"
+                            : "Source file does not exist: " + name);
+                    continue;
+                }
+                Path target = directory.resolve(source.getFileName());
+                try {
+                    if (Files.exists(target) && Files.isSameFile(source, target)) {
+                        fail("cp: '" + name + "' and '" + target + "' are the same file");
+                        continue;
+                    }
+                } catch (IOException e) {
+                    fail("cp: failed to copy '" + name + "': " + e.getMessage());
+                    continue;
+                }
+                Runnable copy = () -> {
+                    try {
+                        copyFile(source, target, Files.size(source), true, false);
+                    } catch (IOException e) {
+                        errors.add("cp: failed to copy '" + name + "': " + e.getMessage());
+                    }
+                };
+                if (pool != null) {
+                    pool.execute(copy);
+                } else {
+                    copy.run();
+                }
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+                try {
+                    pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    pool.shutdownNow();
+                    Thread.currentThread().interrupt();
+                }
+            }
+            listingCache.invalidate(directory);
+        }
+        for (String error : errors) {
+            fail(error);
+        }
+        if (cancelled()) {
+            fail("cp: cancelled");
+        }
+    }
+
+    // Files at or above this size are copied with FileChannel.transferTo so the
+    // kernel moves the bytes (sendfile on Linux) without user-space buffers.
+    static final long ZERO_COPY_THRESHOLD = Long.getLong("terminal.zeroCopyThreshold", 64L * 1024 * 1024);
+    private static final long TRANSFER_CHUNK = 16L * 1024 * 1024;
+
+    // the backend that moves file bytes for cp, cp -r, sync and unzip
+    static volatile IoBackend ioBackend = IoBackend.fromProperties();
+
+    private static void copyFile(Path src, Path dest, long size, boolean copyAttributes, boolean progress)
+            throws IOException {
+        // the backends truncate dest before reading src
+        if (Files.exists(dest) && Files.isSameFile(src, dest)) {
+            throw new IOException("'" + src + "' and '" + dest + "' are the same file");
+        }
+        FileCopyEvent event = new FileCopyEvent();
+        event.begin();
+        long copied = ioBackend.copy(src, dest, size, copyAttributes,
+                progress && size >= ZERO_COPY_THRESHOLD ? new CopyProgress(src, size) : null);
+        Metrics.read(copied);
+        Metrics.written(copied);
+        event.destination = dest.toString();
+        event.record(src, copied, 1);
+    }
+
+    private static void copyTimeAndPermissions(Path src, Path dest) throws IOException {
+        Files.setLastModifiedTime(dest, Files.getLastModifiedTime(src));
+        try {
+            Files.setPosixFilePermissions(dest, Files.getPosixFilePermissions(src));
+        } catch (UnsupportedOperationException e) {
+            // not a POSIX file system, the modification time is all we keep
+        }
+    }
+
+    // the "cp: file 40% (...)" line on stderr for a large copy, redrawn at
+    // every tenth of the file
+    static final class CopyProgress {
+        private final Path file;
+        private final long size;
+        private final long start = System.nanoTime();
+        private int reported;
+
+        CopyProgress(Path file, long size) {
+            this.file = file;
+            this.size = size;
+        }
+
+        synchronized void update(long position) {
+            int percent = (int) (position * 100 / size);
+            if (percent / 10 > reported / 10) {
+                reported = percent;
+                double seconds = Math.max((System.nanoTime() - start) / 1e9, 1e-9);
+                System.err.printf("\rcp: %s %3d%% (%d/%d MB, %.1f MB/s)", file.getFileName(), percent,
+                        position >> 20, size >> 20, (position >> 20) / seconds);
+            }
+        }
+
+        void done() {
+            System.err.println();
+        }
+    }
+
+    // ---------- I/O backends ----------
+    // How cp, cp -r, sync and unzip move file bytes (-Dterminal.io or the io command).
+    interface IoBackend {
+        IoBackend BLOCKING = new BlockingIo();
+
+        String describe();
+
+        // copies size bytes of src over dest, returning the bytes copied
+        long copy(Path src, Path dest, long size, boolean copyAttributes, CopyProgress progress) throws IOException;
+
+        // writes the stream over dest; sizeHint is the expected length, or -1
+        long write(InputStream in, Path dest, long sizeHint) throws IOException;
+
+        // lets the backend's threads go once the transfers it has started are done
+        default void close() {
+        }
+
+        static IoBackend fromProperties() {
+            if ("async".equals(System.getProperty("terminal.io"))) {
+                return new AsyncIo(Math.max(1, Integer.getInteger("terminal.io.depth", AsyncIo.DEFAULT_DEPTH)),
+                        Math.max(4096, Integer.getInteger("terminal.io.chunk", AsyncIo.DEFAULT_CHUNK)));
+            }
+            return BLOCKING;
+        }
+    }
+
+    // Files.copy for small files, transferTo (sendfile) in 16 MB steps from
+    // ZERO_COPY_THRESHOLD up, and an arena buffer for unzip's entry streams
+    static final class BlockingIo implements IoBackend {
+        @Override
+        public String describe() {
+            return "blocking (Files.copy; transferTo from " + (ZERO_COPY_THRESHOLD >> 20) + " MB)";
+        }
+
+        @Override
+        public long copy(Path src, Path dest, long size, boolean copyAttributes, CopyProgress progress)
+                throws IOException {
+            if (size < ZERO_COPY_THRESHOLD) {
+                if (copyAttributes) {
+                    Files.copy(src, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                } else {
+                    Files.copy(src, dest, StandardCopyOption.REPLACE_EXISTING);
+                }
+                return size;
+            }
+
+            long position = 0;
+            try (FileChannel in = FileChannel.open(src, StandardOpenOption.READ);
+                    FileChannel out = FileChannel.open(dest, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (position < size) {
+                    long n = in.transferTo(position, Math.min(TRANSFER_CHUNK, size - position), out);
+                    if (n <= 0) {
+                        break; // source shrank while copying
+                    }
+                    position += n;
+                    if (progress != null) {
+                        progress.update(position);
+                    }
+                }
+            }
+            if (progress != null) {
+                progress.done();
+            }
+            if (copyAttributes) {
+                copyTimeAndPermissions(src, dest);
+            }
+            return position;
+        }
+
+        @Override
+        public long write(InputStream in, Path dest, long sizeHint) throws IOException {
+            try (OutputStream out = Files.newOutputStream(dest)) {
+                return BufferArena.SHARED.transfer(in, out);
+            }
+        }
+    }
+
+    // AsynchronousFileChannel backend with up to `depth` chunk requests in flight;
+    // anything smaller than one chunk goes the blocking way.
+    static final class AsyncIo implements IoBackend {
+        static final int DEFAULT_DEPTH = 8;
+        static final int DEFAULT_CHUNK = 1024 * 1024;
+
+        private final int depth;
+        private final int chunk;
+        private final ExecutorService executor;
+        private int transfers;
+        private boolean closed;
+
+        AsyncIo(int depth, int chunk) {
+            this.depth = depth;
+            this.chunk = chunk;
+            AtomicInteger threadNumber = new AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(depth, depth, 30L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), runnable -> {
+                        Thread thread = ResourceUsage.WORKERS.newThread(runnable);
+                        thread.setName("async-io-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            // idle threads exit, so an abandoned backend leaves nothing behind
+            pool.allowCoreThreadTimeOut(true);
+            this.executor = pool;
+        }
+
+        @Override
+        public String describe() {
+            return "async (AsynchronousFileChannel, " + depth + " requests in flight, " + (chunk >> 10) + " KB chunks)";
+        }
+
+        private ByteBuffer acquire() {
+            return BufferArena.SHARED.direct(chunk);
+        }
+
+        private void release(ByteBuffer buffer) {
+            BufferArena.SHARED.release(buffer);
+        }
+
+        // false once closed: a transfer that starts then goes the blocking way
+        private synchronized boolean begin() {
+            if (closed) {
+                return false;
+            }
+            transfers++;
+            return true;
+        }
+
+        private synchronized void end() {
+            if (--transfers == 0 && closed) {
+                executor.shutdown();
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            closed = true;
+            if (transfers == 0) {
+                executor.shutdown();
+            }
+        }
+
+        @Override
+        public long copy(Path src, Path dest, long size, boolean copyAttributes, CopyProgress progress)
+                throws IOException {
+            if (size < chunk || !begin()) {
+                return BLOCKING.copy(src, dest, size, copyAttributes, progress);
+            }
+            long copied;
+            try (AsynchronousFileChannel in = AsynchronousFileChannel.open(src,
+                    EnumSet.of(StandardOpenOption.READ), executor);
+                    AsynchronousFileChannel out = AsynchronousFileChannel.open(dest, EnumSet.of(
+                            StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING),
+                            executor)) {
+                Transfer transfer = new Transfer(in, out, size, progress);
+                for (int i = 0; i < depth && transfer.startRead(); i++) {
+                }
+                copied = transfer.await();
+            } finally {
+                end();
+            }
+            if (progress != null) {
+                progress.done();
+            }
+            if (copyAttributes) {
+                copyTimeAndPermissions(src, dest);
+            }
+            return copied;
+        }
+
+        // One file copy: `active` counts the chunks between their read and
+        // the end of their write; every finished chunk starts the next read.
+        private final class Transfer {
+            private final AsynchronousFileChannel in;
+            private final AsynchronousFileChannel out;
+            private final long size;
+            private final CopyProgress progress;
+            private long next;
+            private int active;
+            private long copied;
+            private Throwable error;
+
+            Transfer(AsynchronousFileChannel in, AsynchronousFileChannel out, long size, CopyProgress progress) {
+                this.in = in;
+                this.out = out;
+                this.size = size;
+                this.progress = progress;
+            }
+
+            boolean startRead() {
+                long position;
+                int length;
+                synchronized (this) {
+                    if (error != null || next >= size) {
+                        return false;
+                    }
+                    position = next;
+                    length = (int) Math.min(chunk, size - position);
+                    next += length;
+                    active++;
+                }
+                ByteBuffer buffer = acquire();
+                buffer.limit(length);
+                in.read(buffer, position, buffer, new Chunk(position));
+                return true;
+            }
+
+            private final class Chunk implements CompletionHandler<Integer, ByteBuffer> {
+                private final long position;
+                private boolean writing;
+
+                Chunk(long position) {
+                    this.position = position;
+                }
+
+                @Override
+                public void completed(Integer n, ByteBuffer buffer) {
+                    if (!writing) {
+                        if (n < 0) {
+                            // the source shrank while copying: stop reading
+                            synchronized (Transfer.this) {
+                                next = size;
+                            }
+                            buffer.flip();
+                        } else if (buffer.hasRemaining()) {
+                            in.read(buffer, position + buffer.position(), buffer, this);
+                            return;
+                        } else {
+                            buffer.flip();
+                        }
+                        writing = true;
+                        if (!buffer.hasRemaining()) {
+                            finish(buffer, 0);
+                            return;
+                        }
+                        out.write(buffer, position, buffer, this);
+                    } else if (buffer.hasRemaining()) {
+                        out.write(buffer, position + buffer.position(), buffer, this);
+                    } else {
+                        finish(buffer, buffer.limit());
+                    }
+                }
+
+                @Override
+                public void failed(Throwable e, ByteBuffer buffer) {
+                    synchronized (Transfer.this) {
+                        if (error == null) {
+                            error = e;
+                        }
+                    }
+                    finish(buffer, 0);
+                }
+            }
+
+            private void finish(ByteBuffer buffer, int bytes) {
+                release(buffer);
+                long total;
+                synchronized (this) {
+                    copied += bytes;
+                    total = copied;
+                    active--;
+                }
+                if (progress != null) {
+                    progress.update(total);
+                }
+                if (!startRead()) {
+                    synchronized (this) {
+                        if (active == 0) {
+                            notifyAll();
+                        }
+                    }
+                }
+            }
+
+            synchronized long await() throws IOException {
+                try {
+                    while (active > 0) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("copy interrupted");
+                }
+                if (error != null) {
+                    throw error instanceof IOException ? (IOException) error : new IOException(error);
+                }
+                return copied;
+            }
+        }
+
+        @Override
+        public long write(InputStream in, Path dest, long sizeHint) throws IOException {
+            if ((sizeHint >= 0 && sizeHint < chunk) || !begin()) {
+                return BLOCKING.write(in, dest, sizeHint);
+            }
+            Semaphore slots = new Semaphore(depth);
+            AtomicReference<Throwable> error = new AtomicReference<>();
+            byte[] bytes = BufferArena.SHARED.heap(64 * 1024);
+            long position = 0;
+            try (AsynchronousFileChannel out = AsynchronousFileChannel.open(dest, EnumSet.of(
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING),
+                    executor)) {
+                while (error.get() == null) {
+                    ByteBuffer buffer = acquire();
+                    // the completion handler owns the buffer once the write is submitted
+                    boolean submitted = false;
+                    try {
+                        int n;
+                        while (buffer.hasRemaining()
+                                && (n = in.read(bytes, 0, Math.min(bytes.length, buffer.remaining()))) != -1) {
+                            buffer.put(bytes, 0, n);
+                        }
+                        buffer.flip();
+                        if (!buffer.hasRemaining()) {
+                            break;
+                        }
+                        long offset = position;
+                        position += buffer.remaining();
+                        slots.acquire();
+                        out.write(buffer, offset, buffer, new CompletionHandler<Integer, ByteBuffer>() {
+                            @Override
+                            public void completed(Integer written, ByteBuffer buffer) {
+                                if (buffer.hasRemaining()) {
+                                    out.write(buffer, offset + buffer.position(), buffer, this);
+                                    return;
+                                }
+                                release(buffer);
+                                slots.release();
+                            }
+
+                            @Override
+                            public void failed(Throwable e, ByteBuffer buffer) {
+                                error.compareAndSet(null, e);
+                                release(buffer);
+                                slots.release();
+                            }
+                        });
+                        submitted = true;
+                    } finally {
+                        if (!submitted) {
+                            release(buffer);
+                        }
+                    }
+                }
+                // every write has finished once all slots are back
+                slots.acquire(depth);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("extract interrupted");
+            } finally {
+                BufferArena.SHARED.release(bytes);
+                end();
+            }
+            Throwable e = error.get();
+            if (e != null) {
+                throw e instanceof IOException ? (IOException) e : new IOException(e);
+            }
+            return position;
+        }
+    }
+
+    // io [blocking | async [depth [chunkKB]]]: shows or switches the I/O
+    // backend of cp, cp -r, sync and unzip for the whole session
+    public void io(String[] args) {
+        if (args != null && args.length > 0) {
+            String kind = args[0].toLowerCase(Locale.ROOT);
+            if (kind.equals("blocking") && args.length == 1) {
+                switchBackend(IoBackend.BLOCKING);
+            } else if (kind.equals("async") && args.length <= 3) {
+                try {
+                    int depth = args.length > 1 ? Integer.parseInt(args[1]) : AsyncIo.DEFAULT_DEPTH;
+                    int chunkKb = args.length > 2 ? Integer.parseInt(args[2]) : AsyncIo.DEFAULT_CHUNK >> 10;
+                    if (depth < 1 || chunkKb < 4 || chunkKb > 64 * 1024) {
+                        throw new NumberFormatException();
+                    }
+                    switchBackend(new AsyncIo(depth, chunkKb << 10));
+                } catch (NumberFormatException e) {
+                    fail("io: depth must be at least 1 and the chunk size 4 to 65536 KB");
+                    return;
+                }
+            } else {
+                fail("io: usage: io [blocking | async [depth [chunkKB]]]");
+                return;
+            }
+        }
+        out.println("io: " + ioBackend.describe());
+    }
+
+    // the previous backend shuts its threads down once its running transfers are done
+    private static void switchBackend(IoBackend next) {
+        IoBackend previous = ioBackend;
+        ioBackend = next;
+        previous.close();
+    }
+
+    // ---------- mkdir ----------
+    public void mkdir(String[] args) {
+        if (args == null || args.length == 0) {
+            fail("mkdir: missing directory name(s)");
+            return;
+        }
+
+        for (String arg : args) {
+            String fullpath = arg;
+            if (fullpath.length() >= 2 &&
+                    (fullpath.charAt(0) == '"') &&
+                    (fullpath.charAt(fullpath.length() - 1) == '"')) {
+                fullpath = fullpath.substring(1, fullpath.length() - 1);
+            }
+            try {
+                Path dirPath = currentDirectory.resolve(fullpath).normalize();
+                if (Files.exists(dirPath)) {
+                    fail("mkdir: Directory already exists: " + dirPath.getFileName());
+                    continue;
+                }
+                Path parentDir = dirPath.getParent();
+                if (parentDir != null && (!Files.exists(parentDir) || !Files.isWritable(parentDir))) {
+                    fail("Parent directory does not exist or is not writable: " + fullpath);
+                    continue;
+                }
+                Files.createDirectories(dirPath);
+                listingCache.invalidate(parentDir);
+                out.println("Directory created: " + dirPath.getFileName());
+
+            } catch (Exception e) {
+                fail("mkdir: error creating directory '" + arg + "': " + e.getMessage());
+            }
+        }
+    }
+
+    // ---------- rmdir ----------
+    // rmdir [-p] <dir...|*>: removes empty directories (-p: and their parents);
+    // rmdir -s <dir|*> removes every directory that holds only empty directories
+    public void rmdir(String[] args) {
+        Flags flags;
+        try {
+            flags = Flags.parse(args == null ? new String[0] : args, "ps", "");
+        } catch (IllegalArgumentException e) {
+            fail("rmdir: " + e.getMessage());
+            return;
+        }
+        if (flags.operands().isEmpty() || (flags.has('s') && (flags.has('p') || flags.operands().size() != 1))
+                || (flags.has('p') && flags.operands().contains("*"))) {
+            fail("rmdir: usage: rmdir [-p] <dirname...>, rmdir * or rmdir -s <dirname|*>");
+            return;
+        }
+
+        for (String target : flags.operands()) {
+            if (target.length() >= 2 &&
+                    (target.charAt(0) == '"') &&
+                    (target.charAt(target.length() - 1) == '"')) {
+                target = target.substring(1, target.length() - 1);
+            }
+            if (flags.has('s')) {
+                prune(target);
+            } else if (target.equals("*")) {
+                removeEmptyChildren();
+            } else if (flags.has('p')) {
+                removeWithParents(target);
+            } else {
+                removeEmptyDirectory(target);
+            }
+        }
+    }
+
+    // rmdir -p a/b/c: a/b/c, then a/b, then a, stopping at the first failure
+    private void removeWithParents(String target) {
+        for (Path path = Paths.get(target).normalize(); path != null; path = path.getParent()) {
+            if (!removeEmptyDirectory(path.toString())) {
+                return;
+            }
+        }
+    }
+
+    // one listing of the current directory; each subdirectory is simply
+    // deleted, and the file system refuses the ones that are not empty
+    private void removeEmptyChildren() {
+        List<Path> paths = new ArrayList<>();
+        DirectoryListEvent event = new DirectoryListEvent();
+        event.begin();
+        try (Stream<Path> entries = Files.list(currentDirectory)) {
+            entries.forEach(paths::add);
+        } catch (IOException e) {
+            fail("rmdir: error reading current directory");
+            return;
+        }
+        event.record(currentDirectory, 0, paths.size());
+
+        for (Path path : paths) {
+            if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                try {
+                    Files.delete(path);
+                    listingCache.invalidate(path);
+                    listingCache.invalidate(currentDirectory);
+                    out.println("Removed empty directory: " + path.getFileName());
+                } catch (DirectoryNotEmptyException e) {
+                    // not empty: stays
+                } catch (IOException e) {
+                    fail("rmdir: cannot delete " + path.getFileName());
+                }
+            }
+        }
+    }
+
+    private boolean removeEmptyDirectory(String target) {
+        try {
+            Path dirPath = currentDirectory.resolve(target).normalize();
+            if (!Files.exists(dirPath)) {
+                fail("rmdir: directory not found: " + dirPath.getFileName());
+                return false;
+            }
+            if (!Files.isDirectory(dirPath)) {
+                fail("rmdir: not a directory: " + dirPath.getFileName());
+                return false;
+            }
+            Files.delete(dirPath);
+            listingCache.invalidate(dirPath);
+            listingCache.invalidate(dirPath.getParent());
+            out.println("Directory removed: " + dirPath.getFileName());
+            return true;
+        } catch (DirectoryNotEmptyException e) {
+            fail("rmdir: directory not empty: " + Paths.get(target).getFileName());
+        } catch (Exception e) {
+            fail("rmdir: error removing directory: " + e.getMessage());
+        }
+        return false;
+    }
+
+    // one walk; a directory goes when none of its entries are left
+    private void prune(String target) {
+        boolean keepRoot = target.equals("*");
+        Path root = keepRoot ? currentDirectory : currentDirectory.resolve(target).normalize();
+        if (!Files.isDirectory(root, LinkOption.NOFOLLOW_LINKS)) {
+            fail("rmdir: not a directory: " + target);
+            return;
+        }
+        if (!keepRoot && currentDirectory.startsWith(root)) {
+            fail("rmdir: refusing to remove '" + target + "': it contains the current directory");
+            return;
+        }
+        Deque<int[]> remaining = new ArrayDeque<>();
+        int[] removed = new int[1];
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (cancelled()) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    remaining.push(new int[1]);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    remaining.peek()[0]++;
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    fail("rmdir: cannot read " + file + ": " + e.getMessage());
+                    if (!remaining.isEmpty()) {
+                        remaining.peek()[0]++;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+                    boolean empty = remaining.pop()[0] == 0 && e == null;
+                    if (empty && !(keepRoot && dir.equals(root))) {
+                        try {
+                            Files.delete(dir);
+                            removed[0]++;
+                        } catch (IOException ex) {
+                            fail("rmdir: cannot delete " + dir + ": " + ex.getMessage());
+                            empty = false;
+                        }
+                    } else {
+                        empty = false;
+                    }
+                    if (!empty && !remaining.isEmpty()) {
+                        remaining.peek()[0]++;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            fail("rmdir: " + e.getMessage());
+        } finally {
+            listingCache.invalidateTree(root);
+            listingCache.invalidate(root.getParent());
+        }
+        String count = removed[0] + (removed[0] == 1 ? " directory" : " directories");
+        if (cancelled()) {
+            fail("rmdir: cancelled after removing " + count);
+            return;
+        }
+        out.println("Removed " + count + " that held only empty directories under " + (keepRoot ? "." : target));
+    }
+
+    // ---------- cp -r ----------
+    public void cp_r(Flags flags) {
+        int threads;
+        try {
+            threads = flags.intValue('j', 0);
+        } catch (IllegalArgumentException e) {
+            fail("cp -r: " + e.getMessage());
+            return;
+        }
+        if (flags.operands().size() != 2) {
+            fail("cp -r: usage: cp -r [-j N] <sourceDir> <destinationDir>");
+            return;
+        }
+
+        String sourcePath = flags.operands().get(0);
+        String destinationPath = flags.operands().get(1);
+
+        if ((sourcePath.charAt(0) == '"') && (sourcePath.charAt(sourcePath.length() - 1) == '"')) {
+            sourcePath = sourcePath.substring(1, sourcePath.length() - 1);
+        }
+
+        if ((destinationPath.charAt(0) == '"') && (destinationPath.charAt(destinationPath.length() - 1) == '"')) {
+            destinationPath = destinationPath.substring(1, destinationPath.length() - 1);
+        }
+
+        Path source = currentDirectory.resolve(sourcePath).normalize();
+        Path destination = currentDirectory.resolve(destinationPath).normalize();
+
+        if (!Files.exists(source) || !Files.isDirectory(source)) {
+            fail("cp -r: source directory does not exist or is not a directory: " + source.getFileName());
+            return;
+        }
+
+        File destinationDir = destination.toFile();
+
+        if (!destinationDir.exists() || !destinationDir.isDirectory()) {
+            fail("cp -r: destination directory does not exist: " + destination.getFileName());
+            return;
+        }
+
+        if (!destinationDir.canWrite()) {
+            fail("cp -r: destination directory is not writable: " + destination.getFileName());
+            return;
+        }
+
+        try {
+            if (Files.isSameFile(source, destination)) {
+                fail("cp -r: source and destination directories are the same");
+                return;
+            }
+        } catch (IOException e) {
+            fail("cp -r: error comparing directories: " + e.getMessage());
+            return;
+        }
+
+        listingCache.invalidateTree(destination);
+        if (threads > 0) {
+            copyTreeParallel(source, destination, threads);
+            return;
+        }
+
+        try {
+            Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    if (cancelled()) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    Path targetDir = destination.resolve(source.relativize(dir));
+                    if (!Files.exists(targetDir)) {
+                        Files.createDirectories(targetDir);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (cancelled()) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    Path targetFile = destination.resolve(source.relativize(file));
+                    copyFile(file, targetFile, attrs.size(), false, true);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+
+            if (cancelled()) {
+                fail("cp -r: cancelled");
+                return;
+            }
+            out.println(
+                    "Copied directory recursively from " + source.getFileName() + " to " + destination.getFileName());
+        } catch (Exception e) {
+            fail("cp -r: error copying directory: " + e.getMessage());
+        }
+    }
+
+    // Walks the tree on the calling thread and hands file copies to a bounded pool.
+    private void copyTreeParallel(Path source, Path destination, int threads) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 64), ResourceUsage.WORKERS, new ThreadPoolExecutor.CallerRunsPolicy());
+        AtomicLong fileCount = new AtomicLong();
+        AtomicLong byteCount = new AtomicLong();
+        Queue<String> errors = new ConcurrentLinkedQueue<>();
+        long start = System.nanoTime();
+
+        try {
+            Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    if (cancelled()) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    Path targetDir = destination.resolve(source.relativize(dir));
+                    if (!Files.exists(targetDir)) {
+                        Files.createDirectories(targetDir);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (cancelled()) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    Path targetFile = destination.resolve(source.relativize(file));
+                    long size = attrs.size();
+                    pool.execute(() -> {
+                        try {
+                            copyFile(file, targetFile, size, false, false);
+                            fileCount.incrementAndGet();
+                            byteCount.addAndGet(size);
+                        } catch (IOException e) {
+                            errors.add(source.relativize(file) + ": " + e.getMessage());
+                        }
+                    });
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    errors.add(source.relativize(file) + ": " + e.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            errors.add(e.getMessage());
+        } finally {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                pool.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        for (String error : errors) {
+            fail("cp -r: error copying " + error);
+        }
+        if (cancelled()) {
+            fail("cp -r: cancelled after " + fileCount.get() + " files");
+            return;
+        }
+        double seconds = Math.max((System.nanoTime() - start) / 1e9, 1e-9);
+        double megabytes = byteCount.get() / (1024.0 * 1024.0);
+        out.printf("Copied %d files (%.1f MB) from %s to %s in %.2f s: %.1f MB/s, %.0f files/s, %d threads%n",
+                fileCount.get(), megabytes, source.getFileName(), destination.getFileName(), seconds,
+                megabytes / seconds, fileCount.get() / seconds, threads);
+    }
+
+    // ---------- sync ----------
+    // sync [-v] [-j N] <sourceDir> <destinationDir>: copies new and changed files only
+    static final String SYNC_MANIFEST = ".terminal-sync";
+    static final long HASH_WINDOW = 16L * 1024 * 1024;
+
+    public void sync(String[] args) {
+        Flags flags;
+        int threads;
+        try {
+            flags = Flags.parse(args == null ? new String[0] : args, "v", "j");
+            threads = flags.intValue('j', 1);
+        } catch (IllegalArgumentException e) {
+            fail("sync: " + e.getMessage());
+            return;
+        }
+        if (flags.operands().size() != 2) {
+            fail("sync: usage: sync [-v] [-j N] <sourceDir> <destinationDir>");
+            return;
+        }
+
+        String sourcePath = flags.operands().get(0);
+        String destinationPath = flags.operands().get(1);
+
+        if ((sourcePath.charAt(0) == '"') && (sourcePath.charAt(sourcePath.length() - 1) == '"')) {
+            sourcePath = sourcePath.substring(1, sourcePath.length() - 1);
+        }
+
+        if ((destinationPath.charAt(0) == '"') && (destinationPath.charAt(destinationPath.length() - 1) == '"')) {
+            destinationPath = destinationPath.substring(1, destinationPath.length() - 1);
+        }
+
+        Path source = currentDirectory.resolve(sourcePath).normalize();
+        Path destination = currentDirectory.resolve(destinationPath).normalize();
+
+        if (!Files.isDirectory(source)) {
+            fail("sync: source directory does not exist or is not a directory: " + source.getFileName());
+            return;
+        }
+        try {
+            Files.createDirectories(destination);
+            if (Files.isSameFile(source, destination)) {
+                fail("sync: source and destination directories are the same");
+                return;
+            }
+        } catch (IOException e) {
+            fail("sync: cannot create destination directory: " + e.getMessage());
+            return;
+        }
+
+        SyncManifest manifest;
+        try {
+            manifest = SyncManifest.load(destination.resolve(SYNC_MANIFEST));
+        } catch (IOException e) {
+            fail("sync: cannot read manifest: " + e.getMessage());
+            return;
+        }
+        listingCache.invalidateTree(destination);
+        boolean verbose = flags.has('v');
+        AtomicLong copied = new AtomicLong();
+        AtomicLong copiedBytes = new AtomicLong();
+        AtomicLong unchanged = new AtomicLong();
+        AtomicLong hashed = new AtomicLong();
+        Queue<String> errors = new ConcurrentLinkedQueue<>();
+        ThreadPoolExecutor pool = threads > 1 ? new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 64), ResourceUsage.WORKERS, new ThreadPoolExecutor.CallerRunsPolicy())
+                : null;
+        long start = System.nanoTime();
+
+        try {
+            Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    if (cancelled()) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    Path targetDir = destination.resolve(source.relativize(dir));
+                    if (!Files.isDirectory(targetDir)) {
+                        Files.createDirectories(targetDir);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (cancelled()) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    Path relative = source.relativize(file);
+                    String key = relative.toString().replace(File.separatorChar, '/');
+                    if (key.equals(SYNC_MANIFEST) || !attrs.isRegularFile()) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    Path target = destination.resolve(relative);
+                    Runnable task = () -> {
+                        try {
+                            switch (syncFile(file, attrs, target, key, manifest)) {
+                                case COPIED:
+                                    copied.incrementAndGet();
+                                    copiedBytes.addAndGet(attrs.size());
+                                    if (verbose) {
+                                        out.println("copied " + key);
+                                    }
+                                    break;
+                                case HASH_MATCHED:
+                                    hashed.incrementAndGet();
+                                    if (verbose) {
+                                        out.println("same content " + key);
+                                    }
+                                    break;
+                                default:
+                                    unchanged.incrementAndGet();
+                            }
+                        } catch (IOException e) {
+                            errors.add(key + ": " + e.getMessage());
+                        }
+                    };
+                    if (pool != null) {
+                        pool.execute(task);
+                    } else {
+                        task.run();
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    errors.add(source.relativize(file) + ": " + e.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            errors.add(e.getMessage());
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+                try {
+                    pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    pool.shutdownNow();
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        try {
+            // a cancelled walk has not seen every file: keep the entries it missed
+            manifest.save(!cancelled() && errors.isEmpty());
+        } catch (IOException e) {
+            errors.add("cannot write manifest: " + e.getMessage());
+        }
+        for (String error : errors) {
+            fail("sync: error syncing " + error);
+        }
+        if (cancelled()) {
+            fail("sync: cancelled after " + copied.get() + " copied files");
+            return;
+        }
+        double seconds = Math.max((System.nanoTime() - start) / 1e9, 1e-9);
+        out.printf("Synced %s to %s: %d copied (%.1f MB), %d unchanged, %d identical by hash in %.2f s%n",
+                source.getFileName(), destination.getFileName(), copied.get(),
+                copiedBytes.get() / (1024.0 * 1024.0), unchanged.get(), hashed.get(), seconds);
+    }
+
+    enum SyncResult { UNCHANGED, HASH_MATCHED, COPIED }
+
+    private static SyncResult syncFile(Path file, BasicFileAttributes attrs, Path target, String key,
+            SyncManifest manifest) throws IOException {
+        manifest.seen(key);
+        long size = attrs.size();
+        long time = attrs.lastModifiedTime().toMillis();
+        BasicFileAttributes existing = null;
+        try {
+            existing = Files.readAttributes(target, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            // not there yet
+        }
+        if (existing != null && existing.isRegularFile() && existing.size() == size) {
+            long targetTime = existing.lastModifiedTime().toMillis();
+            if (targetTime == time) {
+                return SyncResult.UNCHANGED;
+            }
+            long targetHash = manifest.hash(key, size, targetTime);
+            if (targetHash < 0) {
+                targetHash = crc32c(target, size);
+            }
+            long sourceHash = crc32c(file, size);
+            if (sourceHash == targetHash) {
+                Files.setLastModifiedTime(target, attrs.lastModifiedTime());
+                manifest.put(key, size, time, sourceHash);
+                return SyncResult.HASH_MATCHED;
+            }
+            copyFile(file, target, size, true, false);
+            manifest.put(key, size, time, sourceHash);
+            return SyncResult.COPIED;
+        }
+        copyFile(file, target, size, true, false);
+        manifest.remove(key);
+        return SyncResult.COPIED;
+    }
+
+    // CRC32C of the file over memory-mapped windows (the JDK computes it
+    // with the CPU's CRC32 instructions)
+    private static long crc32c(Path file, long size) throws IOException {
+        CRC32C crc = new CRC32C();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (long position = 0; position < size; position += HASH_WINDOW) {
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(HASH_WINDOW, size - position)));
+            }
+        }
+        Metrics.read(size);
+        return crc.getValue();
+    }
+
+    // Known destination hashes: "crc32c size mtime path" lines, valid while size and time match.
+    static class SyncManifest {
+        private static final String HEADER = "# terminal sync manifest v1";
+
+        private final Path file;
+        private final Map<String, long[]> entries = new ConcurrentHashMap<>();
+        private final Set<String> seen = ConcurrentHashMap.newKeySet();
+        private volatile boolean changed;
+
+        private SyncManifest(Path file) {
+            this.file = file;
+        }
+
+        static SyncManifest load(Path file) throws IOException {
+            SyncManifest manifest = new SyncManifest(file);
+            if (!Files.exists(file)) {
+                return manifest;
+            }
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split(" ", 4);
+                    if (line.startsWith("#") || fields.length != 4) {
+                        continue;
+                    }
+                    try {
+                        manifest.entries.put(fields[3], new long[] {
+                                Long.parseLong(fields[1]), Long.parseLong(fields[2]), Long.parseLong(fields[0], 16) });
+                    } catch (NumberFormatException e) {
+                        manifest.changed = true; // drop the damaged line on the next save
+                    }
+                }
+            }
+            return manifest;
+        }
+
+        void seen(String path) {
+            seen.add(path);
+        }
+
+        long hash(String path, long size, long time) {
+            long[] entry = entries.get(path);
+            return entry != null && entry[0] == size && entry[1] == time ? entry[2] : -1;
+        }
+
+        void put(String path, long size, long time, long hash) {
+            entries.put(path, new long[] { size, time, hash });
+            changed = true;
+        }
+
+        void remove(String path) {
+            if (entries.remove(path) != null) {
+                changed = true;
+            }
+        }
+
+        // rewrites the manifest (through a temp file and an atomic rename);
+        // after a complete walk, entries of files that are gone are dropped
+        void save(boolean complete) throws IOException {
+            if (complete && entries.keySet().retainAll(seen)) {
+                changed = true;
+            }
+            if (!changed) {
+                return;
+            }
+            Path temp = Files.createTempFile(file.getParent(), ".terminal-sync", ".tmp");
+            try {
+                try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                    writer.write(HEADER);
+                    writer.newLine();
+                    for (Map.Entry<String, long[]> entry : new TreeMap<>(entries).entrySet()) {
+                        long[] value = entry.getValue();
+                        writer.write(String.format("%08x %d %d %s", value[2], value[0], value[1], entry.getKey()));
+                        writer.newLine();
+                    }
+                }
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    // ---------- cat ----------
+    // cat [-r] [-n] [file...]: -n numbers lines, -r concatenates raw bytes without banners
+    public void cat(String[] args) {
+        Flags flags;
+        try {
+            flags = Flags.parse(args == null ? new String[0] : args, "rn", "");
+        } catch (IllegalArgumentException e) {
+            fail("cat: " + e.getMessage());
+            return;
+        }
+        if (flags.has('r') && flags.has('n')) {
+            fail("cat: -r and -n cannot be used together");
+            return;
+        }
+        if (in != null && flags.operands().isEmpty()) {
+            LineNumberer numberer = flags.has('n') ? new LineNumberer() : null;
+            try {
+                byte[] chunk = ioBytes();
+                int n;
+                while ((n = in.read(chunk)) != -1 && !out.checkError() && !cancelled()) {
+                    if (numberer != null) {
+                        numberer.write(out, chunk, 0, n);
+                    } else {
+                        out.write(chunk, 0, n);
+                    }
+                }
+            } catch (IOException e) {
+                fail("cat: error reading standard input");
+            }
+            return;
+        }
+        if (flags.operands().isEmpty()) {
+            fail("incorrect file name. Please use format: cat [-r] [-n] filename.extension ...");
+            return;
+        }
+
+        List<Path> files = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (String file_Name : flags.operands()) {
+            if (file_Name.length() >= 2 &&
+                    (file_Name.charAt(0) == '"') &&
+                    (file_Name.charAt(file_Name.length() - 1) == '"')) {
+                file_Name = file_Name.substring(1, file_Name.length() - 1);
+            }
+            Path file_Path = currentDirectory.resolve(file_Name).normalize();
+            if (!Files.exists(file_Path) || !Files.isRegularFile(file_Path)) {
+                fail("\"" + file_Name + "\" No such file or the file not found!");
+                return;
+            }
+            files.add(file_Path);
+            names.add(file_Name);
+        }
+
+        if (flags.has('r')) {
+            try {
+                concatenate(files);
+            } catch (IOException e) {
+                fail("cat: " + e.getMessage());
+            }
+            if (cancelled()) {
+                fail("cat: cancelled");
+            }
+            return;
+        }
+
+        LineNumberer numberer = flags.has('n') ? new LineNumberer() : null;
+        for (int i = 0; i < files.size(); i++) {
+            if (cancelled()) {
+                fail("cat: cancelled");
+                return;
+            }
+            try {
+                boolean endsWithNewline = numberer != null ? numberer.writeFile(out, files.get(i))
+                        : streamFile(files.get(i));
+                if (!endsWithNewline) {
+                    out.println();
+                }
+                out.println("---------- End of " + names.get(i) + " ---------");
+            } catch (IOException e) {
+                fail("cat: error reading " + names.get(i));
+            }
+        }
+    }
+
+    // Copies the file to the output in chunks; returns whether it ended with a newline.
+    private boolean streamFile(Path file) throws IOException {
+        byte last = '\n';
+        long total = 0;
+        FileReadEvent event = new FileReadEvent();
+        event.begin();
+        ByteBuffer buffer = ioBuffer();
+        byte[] bytes = ioBytes();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) != -1 && !out.checkError() && !cancelled()) {
+                buffer.flip();
+                int n = buffer.remaining();
+                if (n > 0) {
+                    buffer.get(bytes, 0, n);
+                    out.write(bytes, 0, n);
+                    Metrics.read(n);
+                    total += n;
+                    last = bytes[n - 1];
+                }
+                buffer.clear();
+            }
+        }
+        event.record(file, total, 1);
+        return last == '\n';
+    }
+
+    // cat -r: large files go out with transferTo, runs of small files in one gathering write
+    static final int RAW_BATCH_BYTES = 1024 * 1024;
+    static final int RAW_SMALL_FILE = 64 * 1024;
+
+    private void concatenate(List<Path> files) throws IOException {
+        WritableByteChannel target = null;
+        if (out instanceof OutputSink) {
+            target = ((OutputSink) out).channel();
+        }
+        if (target == null) {
+            out.flush();
+            target = Channels.newChannel(out);
+        }
+        ByteBuffer batch = null;
+        List<ByteBuffer> slices = new ArrayList<>();
+        try {
+            for (Path file : files) {
+                if (cancelled() || out.checkError()) {
+                    return;
+                }
+                FileReadEvent event = new FileReadEvent();
+                event.begin();
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    long size = channel.size();
+                    if (size <= RAW_SMALL_FILE) {
+                        if (batch == null) {
+                            batch = BufferArena.SHARED.direct(RAW_BATCH_BYTES);
+                        }
+                        if (batch.remaining() < size) {
+                            writeGathered(target, slices);
+                            batch.clear();
+                        }
+                        ByteBuffer slice = batch.slice();
+                        slice.limit((int) size);
+                        while (slice.hasRemaining() && channel.read(slice) != -1) {
+                        }
+                        slice.flip();
+                        batch.position(batch.position() + slice.limit());
+                        slices.add(slice);
+                        size = slice.limit();
+                    } else {
+                        writeGathered(target, slices);
+                        long position = 0;
+                        while (position < size && !cancelled()) {
+                            long n = channel.transferTo(position, size - position, target);
+                            if (n <= 0) {
+                                break;
+                            }
+                            position += n;
+                        }
+                        size = position;
+                    }
+                    Metrics.read(size);
+                    event.record(file, size, 1);
+                }
+            }
+            writeGathered(target, slices);
+        } finally {
+            out.flush();
+            if (batch != null) {
+                BufferArena.SHARED.release(batch);
+            }
+        }
+    }
+
+    private static void writeGathered(WritableByteChannel target, List<ByteBuffer> slices) throws IOException {
+        if (slices.isEmpty()) {
+            return;
+        }
+        if (target instanceof GatheringByteChannel) {
+            ByteBuffer[] buffers = slices.toArray(new ByteBuffer[0]);
+            long remaining = 0;
+            for (ByteBuffer buffer : buffers) {
+                remaining += buffer.remaining();
+            }
+            while (remaining > 0) {
+                remaining -= ((GatheringByteChannel) target).write(buffers);
+            }
+        } else {
+            for (ByteBuffer slice : slices) {
+                while (slice.hasRemaining()) {
+                    target.write(slice);
+                }
+            }
+        }
+        slices.clear();
+    }
+
+    // Numbers lines ("%6d\t") as bytes stream through; numbering continues across files.
+    static class LineNumberer {
+        static final int WINDOW = 4 * 1024 * 1024;
+
+        private long line = 1;
+        private boolean atLineStart = true;
+
+        void write(PrintStream out, byte[] bytes, int offset, int length) {
+            int start = offset;
+            int end = offset + length;
+            for (int i = offset; i < end; i++) {
+                if (atLineStart) {
+                    out.write(bytes, start, i - start);
+                    start = i;
+                    out.print(String.format("%6d\t", line++));
+                    atLineStart = false;
+                }
+                if (bytes[i] == '\n') {
+                    atLineStart = true;
+                }
+            }
+            out.write(bytes, start, end - start);
+        }
+
+        // returns whether the file was empty or ended with a newline; cat adds
+        // the missing newline, so every file starts a numbered line
+        boolean writeFile(PrintStream out, Path file) throws IOException {
+            atLineStart = true;
+            FileReadEvent event = new FileReadEvent();
+            event.begin();
+            long size;
+            byte[] chunk = BufferArena.SHARED.heap(64 * 1024);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                size = channel.size();
+                for (long position = 0; position < size && !out.checkError(); position += WINDOW) {
+                    MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                            Math.min(WINDOW, size - position));
+                    while (window.hasRemaining()) {
+                        int n = Math.min(chunk.length, window.remaining());
+                        window.get(chunk, 0, n);
+                        write(out, chunk, 0, n);
+                    }
+                }
+            } finally {
+                BufferArena.SHARED.release(chunk);
+            }
+            Metrics.read(size);
+            event.record(file, size, 1);
+            return atLineStart;
+        }
+    }
+
+    // ---------- head / tail ----------
+    // head|tail [-n N] [file...]: the first or last N lines (10 by default)
+    public void head(String[] args) {
+        headOrTail("head", args);
+    }
+
+    public void tail(String[] args) {
+        headOrTail("tail", args);
+    }
+
+    private void headOrTail(String name, String[] args) {
+        Flags flags;
+        int lines;
+        try {
+            flags = Flags.parse(args == null ? new String[0] : args, "", "n");
+            lines = flags.intValue('n', 10);
+        } catch (IllegalArgumentException e) {
+            fail(name + ": " + e.getMessage());
+            return;
+        }
+        boolean head = name.equals("head");
+        if (flags.operands().isEmpty() && in != null) {
+            try {
+                if (head) {
+                    headOfStream(lines);
+                } else {
+                    tailOfStream(lines);
+                }
+            } catch (IOException e) {
+                fail(name + ": error reading standard input");
+            }
+            return;
+        }
+        if (flags.operands().isEmpty()) {
+            fail("incorrect file name. Please use format: " + name + " [-n N] filename.extension ...");
+            return;
+        }
+
+        List<String> names = flags.operands();
+        for (int i = 0; i < names.size(); i++) {
+            if (cancelled()) {
+                fail(name + ": cancelled");
+                return;
+            }
+            String fileName = names.get(i);
+            if (fileName.length() >= 2 &&
+                    (fileName.charAt(0) == '"') &&
+                    (fileName.charAt(fileName.length() - 1) == '"')) {
+                fileName = fileName.substring(1, fileName.length() - 1);
+            }
+            Path filePath = currentDirectory.resolve(fileName).normalize();
+            if (!Files.exists(filePath) || !Files.isRegularFile(filePath)) {
+                fail("\"" + fileName + "\" No such file or the file not found!");
+                continue;
+            }
+            if (names.size() > 1) {
+                out.println((i > 0 ? "\n" : "") + "==> " + fileName + " <==");
+            }
+            FileReadEvent event = new FileReadEvent();
+            event.begin();
+            try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+                long size = channel.size();
+                long start = head ? 0 : tailStart(channel, size, lines);
+                long end = head ? headEnd(channel, size, lines) : size;
+                sendRange(channel, start, end);
+                Metrics.read(end - start);
+                event.record(filePath, end - start, 1);
+            } catch (IOException e) {
+                fail(name + ": error reading " + fileName);
+            }
+        }
+    }
+
+    // the offset just past the lines-th newline, or size if there are fewer
+    private static long headEnd(FileChannel channel, long size, int lines) throws IOException {
+        int seen = 0;
+        for (long position = 0; position < size; position += LineNumberer.WINDOW) {
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(LineNumberer.WINDOW, size - position));
+            for (int i = 0, n = window.limit(); i < n; i++) {
+                if (window.get(i) == '\n' && ++seen == lines) {
+                    return position + i + 1;
+                }
+            }
+        }
+        return size;
+    }
+
+    // the offset where the last `lines` lines begin, mapping windows from the
+    // end of the file backwards; a final newline does not start a new line
+    private static long tailStart(FileChannel channel, long size, int lines) throws IOException {
+        int seen = 0;
+        long end = size;
+        boolean skipFinalNewline = true;
+        while (end > 0) {
+            long position = Math.max(0, end - LineNumberer.WINDOW);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, end - position);
+            for (int i = (int) (end - position) - 1; i >= 0; i--) {
+                if (window.get(i) == '\n') {
+                    if (skipFinalNewline && position + i == size - 1) {
+                        continue;
+                    }
+                    if (++seen == lines) {
+                        return position + i + 1;
+                    }
+                }
+            }
+            skipFinalNewline = false;
+            end = position;
+        }
+        return 0;
+    }
+
+    // writes [start, end) of the file to the output: transferTo into the
+    // sink's file channel when there is one, chunked reads otherwise
+    private void sendRange(FileChannel channel, long start, long end) throws IOException {
+        FileChannel target = out instanceof OutputSink ? ((OutputSink) out).channel() : null;
+        if (target != null) {
+            for (long position = start; position < end; ) {
+                long n = channel.transferTo(position, end - position, target);
+                if (n <= 0) {
+                    break;
+                }
+                position += n;
+            }
+            return;
+        }
+        ByteBuffer buffer = ioBuffer();
+        byte[] bytes = ioBytes();
+        channel.position(start);
+        for (long remaining = end - start; remaining > 0 && !out.checkError(); ) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), remaining));
+            int n = channel.read(buffer);
+            if (n <= 0) {
+                break;
+            }
+            buffer.flip();
+            buffer.get(bytes, 0, n);
+            out.write(bytes, 0, n);
+            remaining -= n;
+        }
+    }
+
+    // first N lines of piped input; stops reading once they are out
+    private void headOfStream(int lines) throws IOException {
+        byte[] bytes = ioBytes();
+        int seen = 0;
+        int n;
+        while (seen < lines && (n = in.read(bytes)) != -1 && !out.checkError() && !cancelled()) {
+            int end = n;
+            for (int i = 0; i < n; i++) {
+                if (bytes[i] == '\n' && ++seen == lines) {
+                    end = i + 1;
+                    break;
+                }
+            }
+            out.write(bytes, 0, end);
+        }
+    }
+
+    // last N lines of piped input, keeping only those N in memory
+    private void tailOfStream(int lines) throws IOException {
+        Deque<byte[]> last = new ArrayDeque<>();
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        byte[] bytes = ioBytes();
+        int n;
+        while ((n = in.read(bytes)) != -1 && !cancelled()) {
+            int start = 0;
+            for (int i = 0; i < n; i++) {
+                if (bytes[i] == '\n') {
+                    line.write(bytes, start, i + 1 - start);
+                    start = i + 1;
+                    last.addLast(line.toByteArray());
+                    line.reset();
+                    if (last.size() > lines) {
+                        last.removeFirst();
+                    }
+                }
+            }
+            line.write(bytes, start, n - start);
+        }
+        if (line.size() > 0) {
+            last.addLast(line.toByteArray());
+            if (last.size() > lines) {
+                last.removeFirst();
+            }
+        }
+        for (byte[] kept : last) {
+            out.write(kept, 0, kept.length);
+        }
+    }
+
+    // ---------- find ----------
+    // find [dir...] [-name glob] [-type f|d] [-size [+-]N[ckMG]] [-mtime [+-]N]
+    public void find(String[] args) {
+        if (args == null) {
+            args = new String[0];
+        }
+        List<String> roots = new ArrayList<>();
+        int i = 0;
+        while (i < args.length && !args[i].startsWith("-")) {
+            roots.add(args[i++]);
+        }
+        if (roots.isEmpty()) {
+            roots.add(".");
+        }
+        PathMatcher name = null;
+        char type = 0;
+        NumericTest size = null;
+        NumericTest mtime = null;
+        long sizeUnit = 512;
+        for (; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 >= args.length) {
+                fail("find: missing argument to '" + option + "'");
+                return;
+            }
+            String value = args[++i];
+            try {
+                switch (option) {
+                    case "-name":
+                        name = FileSystems.getDefault().getPathMatcher("glob:" + value);
+                        break;
+                    case "-type":
+                        if (!value.equals("f") && !value.equals("d")) {
+                            throw new IllegalArgumentException("unknown argument to -type: " + value);
+                        }
+                        type = value.charAt(0);
+                        break;
+                    case "-size":
+                        char unit = value.isEmpty() ? 0 : value.charAt(value.length() - 1);
+                        if (unit == 'c' || unit == 'k' || unit == 'M' || unit == 'G') {
+                            sizeUnit = unit == 'c' ? 1 : unit == 'k' ? 1L << 10 : unit == 'M' ? 1L << 20 : 1L << 30;
+                            value = value.substring(0, value.length() - 1);
+                        }
+                        size = NumericTest.parse("-size", value);
+                        break;
+                    case "-mtime":
+                        mtime = NumericTest.parse("-mtime", value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown predicate '" + option + "'");
+                }
+            } catch (IllegalArgumentException e) {
+                fail("find: " + e.getMessage());
+                return;
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        for (String rootName : roots) {
+            if (rootName.length() >= 2 &&
+                    (rootName.charAt(0) == '"') &&
+                    (rootName.charAt(rootName.length() - 1) == '"')) {
+                rootName = rootName.substring(1, rootName.length() - 1);
+            }
+            Path root = currentDirectory.resolve(rootName).normalize();
+            if (!Files.exists(root)) {
+                fail("find: '" + rootName + "': No such file or directory");
+                continue;
+            }
+            String prefix = rootName.endsWith("/") || rootName.endsWith(File.separator) ? rootName
+                    : rootName + File.separator;
+            String displayRoot = rootName;
+            PathMatcher nameTest = name;
+            char typeTest = type;
+            NumericTest sizeTest = size;
+            NumericTest mtimeTest = mtime;
+            long unit = sizeUnit;
+            try {
+                Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                    private FileVisitResult visit(Path path, BasicFileAttributes attrs) {
+                        if (cancelled() || out.checkError()) {
+                            return FileVisitResult.TERMINATE;
+                        }
+                        if ((typeTest == 'f' && !attrs.isRegularFile())
+                                || (typeTest == 'd' && !attrs.isDirectory())) {
+                            return FileVisitResult.CONTINUE;
+                        }
+                        if (nameTest != null) {
+                            Path fileName = path.equals(root) ? Paths.get(displayRoot).getFileName() : path.getFileName();
+                            if (fileName == null || !nameTest.matches(fileName)) {
+                                return FileVisitResult.CONTINUE;
+                            }
+                        }
+                        if (sizeTest != null && !sizeTest.test((attrs.size() + unit - 1) / unit)) {
+                            return FileVisitResult.CONTINUE;
+                        }
+                        if (mtimeTest != null
+                                && !mtimeTest.test((now - attrs.lastModifiedTime().toMillis()) / 86_400_000L)) {
+                            return FileVisitResult.CONTINUE;
+                        }
+                        out.println(path.equals(root) ? displayRoot : prefix + root.relativize(path));
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                        return visit(dir, attrs);
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        return visit(file, attrs);
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        fail("find: '" + file + "': " + e.getMessage());
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                fail("find: " + e.getMessage());
+            }
+        }
+        if (cancelled()) {
+            fail("find: cancelled");
+        }
+    }
+
+    // a find test on a number: "+N" is more than N, "-N" less than N, "N" exactly N
+    static class NumericTest {
+        private final char comparison;
+        private final long value;
+
+        private NumericTest(char comparison, long value) {
+            this.comparison = comparison;
+            this.value = value;
+        }
+
+        static NumericTest parse(String option, String text) {
+            char comparison = !text.isEmpty() && (text.charAt(0) == '+' || text.charAt(0) == '-') ? text.charAt(0) : '=';
+            try {
+                long value = Long.parseLong(comparison == '=' ? text : text.substring(1));
+                if (value < 0) {
+                    throw new NumberFormatException();
+                }
+                return new NumericTest(comparison, value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid argument '" + text + "' to " + option);
+            }
+        }
+
+        boolean test(long n) {
+            return comparison == '+' ? n > value : comparison == '-' ? n < value : n == value;
+        }
+    }
+
+    // ---------- grep ----------
+    // grep [-rinclF] [-j N] <pattern> [file|dir...]: searches on N threads, in file order
+    static final int GREP_WINDOW = 16 * 1024 * 1024;
+    static final int GREP_READ_LIMIT = 256 * 1024;
+
+    public void grep(String[] args) {
+        Flags flags;
+        int threads;
+        try {
+            flags = Flags.parse(args == null ? new String[0] : args, "rinclF", "j");
+            threads = flags.intValue('j', Runtime.getRuntime().availableProcessors());
+        } catch (IllegalArgumentException e) {
+            fail("grep: " + e.getMessage());
+            return;
+        }
+        if (flags.operands().isEmpty()) {
+            fail("incorrect format. Please use format: grep [-rinclF] [-j N] pattern [file|dir...]");
+            return;
+        }
+        Searcher searcher;
+        try {
+            searcher = Searcher.compile(flags.operands().get(0), flags.has('i'), flags.has('F'));
+        } catch (PatternSyntaxException e) {
+            fail("grep: invalid pattern: " + e.getDescription());
+            return;
+        }
+        List<String> targets = new ArrayList<>(flags.operands().subList(1, flags.operands().size()));
+        if (targets.isEmpty() && !flags.has('r')) {
+            if (in == null) {
+                fail("incorrect format. Please use format: grep [-rinclF] [-j N] pattern [file|dir...]");
+                return;
+            }
+            try {
+                grepStream(searcher, flags);
+            } catch (IOException e) {
+                fail("grep: error reading standard input");
+            }
+            return;
+        }
+        if (targets.isEmpty()) {
+            targets.add(".");
+        }
+
+        GrepOutput output = new GrepOutput(out, flags, flags.has('r') || targets.size() > 1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads, ResourceUsage.WORKERS);
+        Deque<Future<GrepResult>> pending = new ArrayDeque<>();
+        int inFlight = threads * 4;
+        try {
+            for (String target : targets) {
+                if (cancelled()) {
+                    break;
+                }
+                if (target.length() >= 2 &&
+                        (target.charAt(0) == '"') &&
+                        (target.charAt(target.length() - 1) == '"')) {
+                    target = target.substring(1, target.length() - 1);
+                }
+                Path path = currentDirectory.resolve(target).normalize();
+                if (!Files.exists(path)) {
+                    fail("grep: " + target + ": No such file or directory");
+                    continue;
+                }
+                if (!Files.isDirectory(path)) {
+                    submitGrep(pool, pending, inFlight, output, searcher, path, target, Files.size(path));
+                    continue;
+                }
+                if (!flags.has('r')) {
+                    fail("grep: " + target + ": Is a directory");
+                    continue;
+                }
+                String prefix = target.endsWith("/") || target.endsWith(File.separator) ? target
+                        : target + File.separator;
+                Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                        if (cancelled() || out.checkError()) {
+                            return FileVisitResult.TERMINATE;
+                        }
+                        if (attrs.isRegularFile()) {
+                            submitGrep(pool, pending, inFlight, output, searcher, file,
+                                    prefix + path.relativize(file), attrs.size());
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        fail("grep: " + file + ": " + e.getMessage());
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            }
+            while (!pending.isEmpty()) {
+                output.print(pending.removeFirst().get());
+            }
+        } catch (IOException e) {
+            fail("grep: " + e.getMessage());
+        } catch (ExecutionException e) {
+            fail("grep: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+            discardGrep(pending);
+            output.close();
+        }
+        if (cancelled()) {
+            fail("grep: cancelled");
+        } else if (!output.matched) {
+            // like grep elsewhere: no matching line is a failure, but a silent one
+            status = 1;
+        }
+    }
+
+    // Queues one file's search window by window; small files are read into an arena buffer.
+    private void submitGrep(ExecutorService pool, Deque<Future<GrepResult>> pending, int inFlight,
+            GrepOutput output, Searcher searcher, Path file, String name, long size)
+            throws IOException {
+        boolean countLines = output.numbered;
+        if (size <= GREP_READ_LIMIT) {
+            pending.add(pool.submit(() -> {
+                ByteBuffer buffer = BufferArena.SHARED.direct((int) size);
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                    }
+                    buffer.flip();
+                    GrepResult result = searchWindow(searcher, file, name, buffer, 0, true, true, countLines);
+                    result.pooled = true;
+                    return result;
+                } catch (IOException | RuntimeException e) {
+                    BufferArena.SHARED.release(buffer);
+                    throw e;
+                }
+            }));
+        } else {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                for (long position = 0; position < size; ) {
+                    long length = Math.min(GREP_WINDOW, size - position);
+                    MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                    int end = (int) length;
+                    if (position + length < size) {
+                        int cut = end;
+                        while (cut > 0 && window.get(cut - 1) != '\n') {
+                            cut--;
+                        }
+                        end = cut > 0 ? cut : end;
+                    }
+                    window.limit(end);
+                    boolean first = position == 0;
+                    boolean last = position + end >= size;
+                    long offset = position;
+                    pending.add(pool.submit(() ->
+                            searchWindow(searcher, file, name, window, offset, first, last, countLines)));
+                    position += end;
+                    drainGrep(pending, inFlight, output);
+                }
+            }
+        }
+        drainGrep(pending, inFlight, output);
+    }
+
+    private void drainGrep(Deque<Future<GrepResult>> pending, int inFlight, GrepOutput output) throws IOException {
+        while (pending.size() > inFlight) {
+            try {
+                output.print(pending.removeFirst().get());
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause().getMessage(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    // hands back the buffers of finished results that will not be printed;
+    // a search still running when grep stops leaves its buffer to the GC
+    private static void discardGrep(Deque<Future<GrepResult>> pending) {
+        for (Future<GrepResult> future : pending) {
+            if (future.isDone() && !future.isCancelled()) {
+                try {
+                    GrepResult result = future.get();
+                    if (result.pooled) {
+                        BufferArena.SHARED.release(result.window);
+                    }
+                } catch (ExecutionException | InterruptedException e) {
+                    // the search failed before it handed out anything
+                }
+            }
+        }
+        pending.clear();
+    }
+
+    private static GrepResult searchWindow(Searcher searcher, Path file, String name, ByteBuffer window,
+            long offset, boolean first, boolean last, boolean countLines) {
+        FileReadEvent event = new FileReadEvent();
+        event.begin();
+        GrepResult result = new GrepResult(name, window, first, last);
+        if (first) {
+            // a NUL in the first 8 KB marks a binary file, as grep elsewhere does
+            for (int i = 0, n = Math.min(window.limit(), 8192); i < n && !result.binary; i++) {
+                result.binary = window.get(i) == 0;
+            }
+        }
+        result.lines = searcher.search(window, 0, window.limit(), countLines, result);
+        Metrics.read(window.limit());
+        event.record(file, window.limit(), 1);
+        return result;
+    }
+
+    // piped input is searched line by line as text
+    private void grepStream(Searcher searcher, Flags flags) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        long count = 0;
+        long number = 0;
+        String line;
+        while ((line = reader.readLine()) != null && !out.checkError() && !cancelled()) {
+            number++;
+            if (!searcher.matches(line)) {
+                continue;
+            }
+            count++;
+            if (flags.has('l')) {
+                break;
+            }
+            if (!flags.has('c')) {
+                out.println(flags.has('n') ? number + ":" + line : line);
+            }
+        }
+        if (flags.has('l') && count > 0) {
+            out.println("(standard input)");
+        } else if (flags.has('c')) {
+            out.println(count);
+        }
+        if (count == 0) {
+            status = 1;
+        }
+    }
+
+    // A grep pattern: a literal matched over bytes (Boyer-Moore-Horspool) or a regex per line.
+    static class Searcher {
+        private static final String REGEX_CHARS = ".[]()*+?{}|^$\\";
+
+        private final String literal;
+        private final boolean ignoreCase;
+        private final byte[] needle;
+        private final byte[] fold = new byte[256];
+        private final int[] shift = new int[256];
+        private final Pattern regex;
+
+        private Searcher(String literal, boolean ignoreCase, Pattern regex) {
+            this.literal = ignoreCase && literal != null ? literal.toLowerCase(Locale.ROOT) : literal;
+            this.ignoreCase = ignoreCase;
+            this.regex = regex;
+            for (int c = 0; c < 256; c++) {
+                fold[c] = (byte) (ignoreCase && c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c);
+            }
+            if (literal == null) {
+                needle = null;
+                return;
+            }
+            needle = literal.getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i < needle.length; i++) {
+                needle[i] = fold[needle[i] & 0xff];
+            }
+            Arrays.fill(shift, needle.length);
+            for (int i = 0; i < needle.length - 1; i++) {
+                shift[needle[i] & 0xff] = needle.length - 1 - i;
+            }
+        }
+
+        static Searcher compile(String pattern, boolean ignoreCase, boolean fixed) {
+            boolean literal = fixed || pattern.chars().noneMatch(c -> REGEX_CHARS.indexOf(c) >= 0);
+            boolean ascii = pattern.chars().allMatch(c -> c < 128);
+            if (literal && !pattern.isEmpty() && (ascii || !ignoreCase)) {
+                return new Searcher(pattern, ignoreCase, null);
+            }
+            int options = ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0;
+            return new Searcher(null, ignoreCase, Pattern.compile(literal ? Pattern.quote(pattern) : pattern, options));
+        }
+
+        boolean matches(String line) {
+            if (regex != null) {
+                return regex.matcher(line).find();
+            }
+            return (ignoreCase ? line.toLowerCase(Locale.ROOT) : line).contains(literal);
+        }
+
+        // adds the matches in [from, to) to result; returns the newlines seen when countLines is set
+        int search(ByteBuffer text, int from, int to, boolean countLines, GrepResult result) {
+            int line = 1;
+            if (regex != null) {
+                Matcher matcher = regex.matcher("");
+                LineView view = new LineView(text);
+                for (int start = from; start < to; line++) {
+                    int end = start;
+                    boolean ascii = true;
+                    while (end < to) {
+                        byte b = text.get(end);
+                        if (b == '\n') {
+                            break;
+                        }
+                        ascii &= b >= 0;
+                        end++;
+                    }
+                    if (ascii) {
+                        matcher.reset(view.of(start, end));
+                    } else {
+                        byte[] bytes = new byte[end - start];
+                        text.get(start, bytes);
+                        matcher.reset(new String(bytes, StandardCharsets.UTF_8));
+                    }
+                    if (matcher.find()) {
+                        result.add(start, end, line);
+                    }
+                    start = end + 1;
+                }
+                return countLines ? line - 1 : 0;
+            }
+            int counted = from;
+            for (int position = from; position < to; ) {
+                int hit = indexOf(text, position, to);
+                if (hit < 0) {
+                    break;
+                }
+                int start = hit;
+                while (start > position && text.get(start - 1) != '\n') {
+                    start--;
+                }
+                int end = hit + needle.length;
+                while (end < to && text.get(end) != '\n') {
+                    end++;
+                }
+                if (countLines) {
+                    line += newlines(text, counted, start);
+                    counted = start;
+                }
+                result.add(start, end, line);
+                position = end + 1;
+            }
+            return countLines ? line - 1 + newlines(text, counted, to) : 0;
+        }
 
+        private int indexOf(ByteBuffer text, int from, int to) {
+            int last = needle.length - 1;
+            byte tail = needle[last];
+            for (int i = from; i <= to - needle.length; ) {
+                int c = fold[text.get(i + last) & 0xff] & 0xff;
+                if ((byte) c == tail) {
+                    int j = last - 1;
+                    while (j >= 0 && fold[text.get(i + j) & 0xff] == needle[j]) {
+                        j--;
+                    }
+                    if (j < 0) {
+                        return i;
+                    }
                 }
+                i += shift[c];
             }
-            names.sort(Comparator.naturalOrder());
+            return -1;
+        }
 
-            for (String name : names) {
-                System.out.println(name);
+        // counts '\n' bytes eight at a time: XOR turns them into zero bytes,
+        // which the SWAR test below marks with their high bit
+        private static int newlines(ByteBuffer text, int from, int to) {
+            int n = 0;
+            int i = from;
+            for (; i + 8 <= to; i += 8) {
+                long v = text.getLong(i) ^ 0x0a0a0a0a0a0a0a0aL;
+                long t = (v & 0x7f7f7f7f7f7f7f7fL) + 0x7f7f7f7f7f7f7f7fL;
+                n += Long.bitCount(~(t | v | 0x7f7f7f7f7f7f7f7fL));
             }
-
-        } catch (Exception e) {
-            System.out.println("ls: cannot access directory " + currentDirectory);
+            for (; i < to; i++) {
+                if (text.get(i) == '\n') {
+                    n++;
+                }
+            }
+            return n;
         }
     }
 
-    // --- CD change directory ---
-    public void cd(String[] args) {
-        if (args != null && args.length > 1) {
-            System.out.println("cd: takes 1 or no arguments");
-            return;
+    // an ASCII line of a buffer seen as chars, so the regex fallback matches
+    // it without decoding or copying; lines with other bytes are decoded
+    static final class LineView implements CharSequence {
+        private final ByteBuffer text;
+        private int start;
+        private int end;
+
+        LineView(ByteBuffer text) {
+            this.text = text;
         }
 
-        if (args == null || args.length == 0) {
-            Path home = Paths.get(System.getProperty("user.home"));
-            currentDirectory = home.toAbsolutePath().normalize();
-            return;
+        LineView of(int start, int end) {
+            this.start = start;
+            this.end = end;
+            return this;
         }
 
-        String target = args[0];
+        @Override
+        public int length() {
+            return end - start;
+        }
 
-        if (target.length() >= 2 &&
-                (target.charAt(0) == '"') &&
-                (target.charAt(target.length() - 1) == '"')) {
-            target = target.substring(1, target.length() - 1);
+        @Override
+        public char charAt(int index) {
+            return (char) text.get(start + index);
         }
 
-        if (target.equals("..")) {
-            Path parent = currentDirectory.getParent();
-            if (parent != null)
-                currentDirectory = parent.normalize();
-            return;
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return toString().substring(from, to);
         }
 
-        try {
-            Path temp = Paths.get(target);
-            Path final_path;
+        @Override
+        public String toString() {
+            byte[] bytes = new byte[end - start];
+            text.get(start, bytes);
+            return new String(bytes, StandardCharsets.US_ASCII);
+        }
+    }
 
-            if (temp.isAbsolute())
-                final_path = temp;
-            else
-                final_path = currentDirectory.resolve(temp);
+    // the matching lines of one window: offsets into the window's buffer and
+    // line numbers relative to its start
+    static class GrepResult {
+        final String name;
+        final ByteBuffer window;
+        final boolean first;
+        final boolean last;
+        // the window is an arena buffer, released once the result is printed
+        boolean pooled;
+        boolean binary;
+        int lines;
+        int count;
+        int[] starts = new int[16];
+        int[] ends = new int[16];
+        int[] numbers = new int[16];
 
-            final_path = final_path.toAbsolutePath().normalize();
+        GrepResult(String name, ByteBuffer window, boolean first, boolean last) {
+            this.name = name;
+            this.window = window;
+            this.first = first;
+            this.last = last;
+        }
 
-            if (final_path.equals(currentDirectory)) {
-                System.out.println("Already in: " + currentDirectory);
-                return;
+        void add(int start, int end, int line) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+                numbers = Arrays.copyOf(numbers, count * 2);
             }
+            starts[count] = start;
+            ends[count] = end;
+            numbers[count] = line;
+            count++;
+        }
+    }
 
-            if (Files.exists(final_path) && Files.isDirectory(final_path)) {
-                currentDirectory = final_path;
+    // Prints window results in order, carrying per-file state (line number
+    // base, match count, binary flag) from one window of a file to the next.
+    static class GrepOutput {
+        private final PrintStream out;
+        private final boolean prefixed;
+        private final boolean numbered;
+        private final boolean counting;
+        private final boolean listing;
+        private final byte[] chunk = BufferArena.SHARED.heap(64 * 1024);
+        private long lineBase;
+        private long fileCount;
+        private boolean binary;
+        boolean matched;
+
+        GrepOutput(PrintStream out, Flags flags, boolean prefixed) {
+            this.out = out;
+            this.prefixed = prefixed;
+            this.numbered = flags.has('n');
+            this.counting = flags.has('c');
+            this.listing = flags.has('l');
+        }
 
+        void print(GrepResult result) {
+            if (result.first) {
+                lineBase = 0;
+                fileCount = 0;
+                binary = result.binary;
+            }
+            boolean listed = fileCount > 0;
+            fileCount += result.count;
+            matched |= result.count > 0;
+            if (listing) {
+                if (!listed && fileCount > 0) {
+                    out.println(result.name);
+                }
+            } else if (counting) {
+                if (result.last) {
+                    out.println(prefixed ? result.name + ":" + fileCount : String.valueOf(fileCount));
+                }
+            } else if (binary) {
+                if (!listed && fileCount > 0) {
+                    out.println("Binary file " + result.name + " matches");
+                }
             } else {
-                System.out.println("cd: cannot change directory '" + target + "': No such directory");
+                for (int i = 0; i < result.count; i++) {
+                    if (prefixed) {
+                        out.print(result.name);
+                        out.print(':');
+                    }
+                    if (numbered) {
+                        out.print(lineBase + result.numbers[i]);
+                        out.print(':');
+                    }
+                    for (int position = result.starts[i]; position < result.ends[i]; ) {
+                        int n = Math.min(chunk.length, result.ends[i] - position);
+                        result.window.get(position, chunk, 0, n);
+                        out.write(chunk, 0, n);
+                        position += n;
+                    }
+                    out.println();
+                }
             }
-        } catch (InvalidPathException e) {
-            System.out.println("cd: failed to change directory '" + target + "': Invalid path");
+            lineBase += result.lines;
+            if (result.pooled) {
+                BufferArena.SHARED.release(result.window);
+            }
+        }
+
+        void close() {
+            BufferArena.SHARED.release(chunk);
         }
     }
 
-    // --- rm Remove ---
-    public void rm(String[] args) {
-        if (args == null || args.length != 1) {
-            System.out.println("rm: must have 1 argument which is file name in current directory");
+    // ---------- wc ----------
+    public void wc(String[] args) {
+        Flags flags;
+        try {
+            flags = Flags.parse(args == null ? new String[0] : args, "lwc", "");
+        } catch (IllegalArgumentException e) {
+            fail("wc: " + e.getMessage());
             return;
         }
-
-        String name = args[0];
-        if (name.length() >= 2 &&
-                (name.charAt(0) == '"') &&
-                (name.charAt(name.length() - 1) == '"')) {
-            name = name.substring(1, name.length() - 1);
+        boolean all = !flags.has('l') && !flags.has('w') && !flags.has('c');
+        if (flags.operands().isEmpty() && in != null) {
+            try {
+                out.println(formatCounts(WordCounter.count(in, ioBytes()), flags, all));
+            } catch (IOException e) {
+                fail("wc: error reading standard input");
+            }
+            return;
+        }
+        if (flags.operands().isEmpty()) {
+            fail("incorrect file name. Please use format: wc [-l] [-w] [-c] file1name.extension ...");
+            return;
         }
 
-        try {
-            Path target = Paths.get(name);
-            Path file_Path;
-
-            if (target.isAbsolute())
-                file_Path = target;
-            else
-                file_Path = currentDirectory.resolve(target);
+        WordCounter.Counts total = new WordCounter.Counts();
+        int counted = 0;
 
-            if (!Files.exists(file_Path)) {
-                System.out.println("rm: cannot remove '" + name + "': No such file or directory");
+        for (String fileName : flags.operands()) {
+            if (cancelled()) {
+                fail("wc: cancelled");
                 return;
             }
-            if (Files.isDirectory(file_Path)) {
-                System.out.println("Cannot delete directory: " + name);
-                return;
+            if (fileName.length() >= 2 &&
+                    (fileName.charAt(0) == '"') &&
+                    (fileName.charAt(fileName.length() - 1) == '"')) {
+                fileName = fileName.substring(1, fileName.length() - 1);
             }
-            if (!Files.isRegularFile(file_Path)) {
-                System.out.println("rm: cannot remove '" + name + "': Not a regular file");
-                return;
+
+            Path filePath = currentDirectory.resolve(fileName).normalize();
+
+            if (!Files.exists(filePath) || !Files.isRegularFile(filePath)) {
+                fail("\"" + fileName + "\" No such file or the file not found!");
+                continue;
             }
 
-            Files.delete(file_Path);
-        } catch (NoSuchFileException e) {
-            System.out.println("rm: cannot remove '" + name + "': No such file or directory");
-        } catch (InvalidPathException e) {
-            System.out.println("rm: failed to remove '" + name + "': Invalid path");
-        } catch (IOException e) {
-            System.out.println("rm: cannot remove '" + name + "': " + e.getMessage());
+            try {
+                FileReadEvent event = new FileReadEvent();
+                event.begin();
+                WordCounter.Counts counts = WordCounter.count(filePath, ioBuffer(), ioBytes());
+                event.record(filePath, counts.bytes, 1);
+                Metrics.read(counts.bytes);
+                out.println(formatCounts(counts, flags, all) + " " + fileName);
+                total.add(counts);
+                counted++;
+            } catch (IOException e) {
+                fail("wc: error reading " + fileName);
+            }
         }
-    }
 
-    // --- CP ------
-    public void cp(String[] args) {
-        if (args == null || args.length != 2) {
-            System.out.println("cp: takes 2 arguments cp <source> <destination>");
-            return;
+        if (counted > 1) {
+            out.println(formatCounts(total, flags, all) + " total");
         }
+    }
 
-        String source_Str = args[0];
-        String destination_Str = args[1];
-
-        if ((source_Str.charAt(0) == '"') && (source_Str.charAt(source_Str.length() - 1) == '"')) {
-            source_Str = source_Str.substring(1, source_Str.length() - 1);
+    private static String formatCounts(WordCounter.Counts counts, Flags flags, boolean all) {
+        StringBuilder sb = new StringBuilder();
+        if (all || flags.has('l')) {
+            sb.append(counts.lines);
         }
-
-        if ((destination_Str.charAt(0) == '"') && (destination_Str.charAt(destination_Str.length() - 1) == '"')) {
-            destination_Str = destination_Str.substring(1, destination_Str.length() - 1);
+        if (all || flags.has('w')) {
+            sb.append(sb.length() > 0 ? " " : "").append(counts.words);
         }
+        if (all || flags.has('c')) {
+            sb.append(sb.length() > 0 ? " " : "").append(counts.bytes);
+        }
+        return sb.toString();
+    }
 
-        try {
-            Path src = Paths.get(source_Str);
-            Path dest = Paths.get(destination_Str);
-
-            if (!src.isAbsolute())
-                src = currentDirectory.resolve(src);
-            if (!dest.isAbsolute())
-                dest = currentDirectory.resolve(dest);
+    // Counts lines, words and bytes; large files are counted in parallel segments.
+    static class WordCounter {
+        static final long PARALLEL_THRESHOLD = 16L * 1024 * 1024;
+        static final long SEGMENT_SIZE = 4L * 1024 * 1024;
 
-            src = src.toAbsolutePath().normalize();
-            dest = dest.toAbsolutePath().normalize();
+        static class Counts {
+            long lines;
+            long words;
+            long bytes;
+            boolean startsInWord;
+            boolean inWord;
 
-            if (!Files.exists(src)) {
-                System.out.println("Source file does not exist: " + source_Str);
-                return;
+            void scan(byte[] buf, int n) {
+                if (n == 0) {
+                    return;
+                }
+                if (bytes == 0) {
+                    startsInWord = !isSpace(buf[0]);
+                }
+                boolean word = inWord;
+                long l = 0;
+                long w = 0;
+                for (int i = 0; i < n; i++) {
+                    byte b = buf[i];
+                    if (b == '\n') {
+                        l++;
+                    }
+                    if (isSpace(b)) {
+                        word = false;
+                    } else if (!word) {
+                        word = true;
+                        w++;
+                    }
+                }
+                inWord = word;
+                lines += l;
+                words += w;
+                bytes += n;
             }
 
-            if (!Files.isRegularFile(src)) {
-                System.out.println("cp: cannot copy '" + source_Str + "': Not a regular file");
-                return;
+            // merges the counts of the segment that directly follows this one
+            Counts merge(Counts next) {
+                Counts merged = new Counts();
+                merged.lines = lines + next.lines;
+                merged.bytes = bytes + next.bytes;
+                merged.words = words + next.words - (inWord && next.startsInWord ? 1 : 0);
+                merged.startsInWord = bytes > 0 ? startsInWord : next.startsInWord;
+                merged.inWord = next.bytes > 0 ? next.inWord : inWord;
+                return merged;
             }
 
-            if (!Files.exists(dest)) {
-                System.out.println("Destination file does not exist: " + destination_Str);
-                return;
+            // accumulates totals of an unrelated file
+            void add(Counts other) {
+                lines += other.lines;
+                words += other.words;
+                bytes += other.bytes;
             }
+        }
 
-            if (!Files.isWritable(dest)) {
-                System.out.println("Destination file is not writable: " + destination_Str);
-                return;
+        static boolean isSpace(byte b) {
+            return b == ' ' || (b >= '\t' && b <= '\r');
+        }
+
+        static Counts count(Path file, ByteBuffer buffer, byte[] bytes) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size >= PARALLEL_THRESHOLD) {
+                    return ForkJoinPool.commonPool().invoke(new SegmentTask(channel, 0, size));
+                }
+                Counts counts = new Counts();
+                buffer.clear();
+                while (channel.read(buffer) != -1) {
+                    buffer.flip();
+                    int n = buffer.remaining();
+                    buffer.get(bytes, 0, n);
+                    counts.scan(bytes, n);
+                    buffer.clear();
+                }
+                return counts;
             }
+        }
 
-            if (Files.isSameFile(src, dest)) {
-                System.out.println("Source and destination files are the same");
-                return;
+        static Counts count(InputStream input, byte[] bytes) throws IOException {
+            Counts counts = new Counts();
+            int n;
+            while ((n = input.read(bytes)) != -1) {
+                counts.scan(bytes, n);
             }
+            return counts;
+        }
 
-            Path parent = dest.getParent();
-            if (parent != null && !Files.exists(parent)) {
-                System.out.println("cp: failed to copy '" + source_Str + "': Destination directory does not exist");
-                return;
+        static class SegmentTask extends RecursiveTask<Counts> {
+            private static final long serialVersionUID = 1L;
+
+            private final FileChannel channel;
+            private final long start;
+            private final long end;
+
+            SegmentTask(FileChannel channel, long start, long end) {
+                this.channel = channel;
+                this.start = start;
+                this.end = end;
             }
 
-            Files.copy(src, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+            @Override
+            protected Counts compute() {
+                if (end - start <= SEGMENT_SIZE) {
+                    return countSegment();
+                }
+                long mid = start + (end - start) / 2;
+                SegmentTask left = new SegmentTask(channel, start, mid);
+                SegmentTask right = new SegmentTask(channel, mid, end);
+                left.fork();
+                Counts rightCounts = right.compute();
+                return left.join().merge(rightCounts);
+            }
 
-        } catch (Exception e) {
-            System.out.println("cp: failed to copy '" + source_Str + "': " + e.getMessage());
+            private Counts countSegment() {
+                Counts counts = new Counts();
+                try {
+                    MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                    byte[] chunk = BufferArena.SHARED.heap(64 * 1024);
+                    try {
+                        while (segment.hasRemaining()) {
+                            int n = Math.min(chunk.length, segment.remaining());
+                            segment.get(chunk, 0, n);
+                            counts.scan(chunk, n);
+                        }
+                    } finally {
+                        BufferArena.SHARED.release(chunk);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return counts;
+            }
         }
     }
 
-    // ---------- mkdir ----------
-    public void mkdir(String[] args) {
-        if (args == null || args.length == 0) {
-            System.out.println("mkdir: missing directory name(s)");
+    // ------------- zip---------------
+    public void zip(String[] args) {
+        Flags flags;
+        int threads;
+        try {
+            flags = Flags.parse(args == null ? new String[0] : args, "r0123456789u", "j");
+            threads = flags.intValue('j', 0);
+        } catch (IllegalArgumentException e) {
+            fail("zip: " + e.getMessage());
             return;
         }
-
-        for (String arg : args) {
-            String fullpath = arg;
-            if (fullpath.length() >= 2 &&
-                    (fullpath.charAt(0) == '"') &&
-                    (fullpath.charAt(fullpath.length() - 1) == '"')) {
-                fullpath = fullpath.substring(1, fullpath.length() - 1);
+        List<String> operands = flags.operands();
+        boolean recursive = flags.has('r');
+        int level = Deflater.DEFAULT_COMPRESSION;
+        for (char c = '0'; c <= '9'; c++) {
+            if (flags.has(c)) {
+                level = c - '0';
             }
-            try {
-                Path dirPath = currentDirectory.resolve(fullpath).normalize();
-                if (Files.exists(dirPath)) {
-                    System.out.println("mkdir: Directory already exists: " + dirPath.getFileName());
-                    continue;
-                }
-                Path parentDir = dirPath.getParent();
-                if (parentDir != null && (!Files.exists(parentDir) || !Files.isWritable(parentDir))) {
-                    System.out.println("Parent directory does not exist or is not writable: " + fullpath);
-                    continue;
-                }
-                Files.createDirectories(dirPath);
-                System.out.println("Directory created: " + dirPath.getFileName());
+        }
 
-            } catch (Exception e) {
-                System.out.println("mkdir: error creating directory '" + arg + "': " + e.getMessage());
+        if (recursive) {
+            if (operands.size() < 2) {
+                fail("zip: usage: zip -r [-u] [-0..-9] [-j N] <archive.zip> <directory>");
+                return;
+            }
+        } else {
+            if (operands.size() < 2) {
+                fail("zip: usage: zip [-u] [-0..-9] [-j N] <archive.zip> <file1> [file2] ...");
+                return;
             }
         }
-    }
 
-    // ---------- rmdir ----------
-    public void rmdir(String[] args) {
-        if (args == null || args.length != 1) {
-            System.out.println("rmdir: usage: rmdir <dirname> or rmdir *");
-            return;
+        String archiveName = operands.get(0);
+        if (archiveName.length() >= 2 &&
+                (archiveName.charAt(0) == '"') &&
+                (archiveName.charAt(archiveName.length() - 1) == '"')) {
+            archiveName = archiveName.substring(1, archiveName.length() - 1);
         }
 
-        String target = args[0];
-        if (target.length() >= 2 &&
-                (target.charAt(0) == '"') &&
-                (target.charAt(target.length() - 1) == '"')) {
-            target = target.substring(1, target.length() - 1);
+        if (!archiveName.endsWith(".zip")) {
+            archiveName += ".zip";
         }
 
-        if (target.equals("*")) {
-            try (Stream<Path> paths = Files.list(currentDirectory)) {
-                paths.forEach(path -> {
-                    if (Files.isDirectory(path)) {
-                        try (Stream<Path> sub = Files.list(path)) {
-                            if (sub.findAny().isEmpty()) {
-                                Files.delete(path);
-                                System.out.println("Removed empty directory: " + path.getFileName());
-                            }
-                        } catch (IOException e) {
-                            System.out.println("rmdir: cannot delete " + path.getFileName());
-                        }
-                    }
-                });
-            } catch (IOException e) {
-                System.out.println("rmdir: error reading current directory");
+        try {
+            Path archivePath = currentDirectory.resolve(archiveName).normalize(); // archivePath now have the absolute
+                                                                                  // path of the zip file
+
+            Path parentDir = archivePath.getParent(); // is the same as currentDirectory here
+            if (parentDir != null && !Files.exists(parentDir)) {
+                Files.createDirectories(parentDir);
             }
-        } else {
-            try {
-                Path dirPath = currentDirectory.resolve(target).normalize();
-                if (!Files.exists(dirPath)) {
-                    System.out.println("rmdir: directory not found: " + dirPath.getFileName());
-                    return;
+
+            List<ZipSource> sources = new ArrayList<>();
+            for (int i = 1; i < operands.size(); i++) {
+                String inputName = operands.get(i);
+                if (inputName.length() >= 2 &&
+                        (inputName.charAt(0) == '"') &&
+                        (inputName.charAt(inputName.length() - 1) == '"')) {
+                    inputName = inputName.substring(1, inputName.length() - 1);
                 }
-                if (!Files.isDirectory(dirPath)) {
-                    System.out.println("rmdir: not a directory: " + dirPath.getFileName());
-                    return;
+                Path inputPath = currentDirectory.resolve(inputName).normalize(); // inputPath is -> the path of the
+                                                                                  // current dir + inputFolderName
+
+                if (!Files.exists(inputPath)) {
+                    out.println("zip: warning: '" + inputName + "' not found, skipping");
+                    continue;
                 }
-                try (Stream<Path> contents = Files.list(dirPath)) {
-                    if (contents.findAny().isEmpty()) {
-                        Files.delete(dirPath);
-                        System.out.println("Directory removed: " + dirPath.getFileName());
+                // this for recursive part
+                if (Files.isDirectory(inputPath)) {
+                    if (recursive) {
+                        Files.walkFileTree(inputPath, new SimpleFileVisitor<Path>() {
+                            @Override
+                            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                                if (cancelled()) {
+                                    return FileVisitResult.TERMINATE;
+                                }
+                                if (attrs.isRegularFile() && !file.equals(archivePath)) {
+                                    Path relativePath = inputPath.relativize(file);
+                                    String entryName = inputPath.getFileName().toString() + "/" +
+                                            relativePath.toString().replace("\\", "/");
+                                    sources.add(new ZipSource(file, entryName, attrs));
+                                }
+                                return FileVisitResult.CONTINUE;
+                            }
+                        });
                     } else {
-                        System.out.println("rmdir: directory not empty: " + dirPath.getFileName());
+                        fail("zip: error: '" + inputName + "' is a directory (use -r for directories)");
+                        return;
                     }
+                } else if (Files.isRegularFile(inputPath)) {
+                    sources.add(new ZipSource(inputPath, inputPath.getFileName().toString(),
+                            Files.readAttributes(inputPath, BasicFileAttributes.class)));
+                } else {
+                    out.println(
+                            "zip: warning: '" + inputName + "' is not a regular file or directory, skipping");
                 }
-            } catch (Exception e) {
-                System.out.println("rmdir: error removing directory: " + e.getMessage());
             }
-        }
-    }
 
-    // ---------- cp -r ----------
-    public void cp_r(String[] args) {
-        if (args == null || args.length != 2) {
-            System.out.println("cp -r: usage: cp -r <sourceDir> <destinationDir>");
-            return;
-        }
+            if (cancelled()) {
+                fail("zip: cancelled");
+                return;
+            }
+            listingCache.invalidate(archivePath.getParent());
+            if (flags.has('u') && Files.exists(archivePath)) {
+                updateZip(archivePath, archiveName, sources, threads, level);
+                return;
+            }
 
-        String sourcePath = args[0];
-        String destinationPath = args[1];
+            boolean addedFiles = false;
+            if (!sources.isEmpty()) {
+                addedFiles = writeZip(archivePath, sources, threads, level);
+            }
 
-        if ((sourcePath.charAt(0) == '"') && (sourcePath.charAt(sourcePath.length() - 1) == '"')) {
-            sourcePath = sourcePath.substring(1, sourcePath.length() - 1);
-        }
+            if (cancelled()) {
+                fail("zip: cancelled");
+                Files.deleteIfExists(archivePath);
+            } else if (addedFiles) {
+                out.println("zip: created archive '" + archiveName + "'");
+            } else {
+                fail("zip: no files were added to archive");
+                Files.deleteIfExists(archivePath);
+            }
 
-        if ((destinationPath.charAt(0) == '"') && (destinationPath.charAt(destinationPath.length() - 1) == '"')) {
-            destinationPath = destinationPath.substring(1, destinationPath.length() - 1);
+        } catch (IOException e) {
+            fail("zip: failed to create archive '" + archiveName + "': " + e.getMessage());
         }
+    }
 
-        Path source = currentDirectory.resolve(sourcePath).normalize();
-        Path destination = currentDirectory.resolve(destinationPath).normalize();
+    // A file on disk and the name it gets inside the archive. In update mode
+    // `unchanged` holds the existing compressed entry to copy instead.
+    static class ZipSource {
+        final Path file;
+        final String entryName;
+        final BasicFileAttributes attrs;
+        CompressedEntry unchanged;
+        String action = "adding";
 
-        if (!Files.exists(source) || !Files.isDirectory(source)) {
-            System.out.println("cp -r: source directory does not exist or is not a directory: " + source.getFileName());
-            return;
+        ZipSource(Path file, String entryName, BasicFileAttributes attrs) {
+            this.file = file;
+            this.entryName = entryName;
+            this.attrs = attrs;
         }
 
-        File destinationDir = destination.toFile();
-
-        if (!destinationDir.exists() || !destinationDir.isDirectory()) {
-            System.out.println("cp -r: destination directory does not exist: " + destination.getFileName());
-            return;
+        static ZipSource copyOf(CompressedEntry entry) {
+            ZipSource source = new ZipSource(null, entry.name, null);
+            source.unchanged = entry;
+            return source;
         }
+    }
 
-        if (!destinationDir.canWrite()) {
-            System.out.println("cp -r: destination directory is not writable: " + destination.getFileName());
-            return;
+    // zip -u: copies unchanged entries as they are and compresses only new or changed files.
+    private void updateZip(Path archivePath, String archiveName, List<ZipSource> sources, int threads, int level)
+            throws IOException {
+        List<CompressedEntry> existing = CompressedEntry.readArchive(archivePath);
+        Map<String, ZipSource> byName = new LinkedHashMap<>();
+        for (ZipSource source : sources) {
+            byName.put(source.entryName, source);
         }
 
-        try {
-            if (Files.isSameFile(source, destination)) {
-                System.out.println("cp -r: source and destination directories are the same");
-                return;
+        List<ZipSource> plan = new ArrayList<>();
+        int changed = 0;
+        for (CompressedEntry entry : existing) {
+            ZipSource source = byName.remove(entry.name);
+            if (source == null) {
+                plan.add(ZipSource.copyOf(entry));
+            } else if (entry.size == source.attrs.size()
+                    && entry.dosTime == ZipWriter.dosTime(source.attrs.lastModifiedTime().toMillis())) {
+                source.unchanged = entry;
+                plan.add(source);
+            } else {
+                source.action = "updating";
+                plan.add(source);
+                changed++;
             }
-        } catch (IOException e) {
-            System.out.println("cp -r: error comparing directories: " + e.getMessage());
+        }
+        plan.addAll(byName.values());
+        changed += byName.size();
+
+        if (changed == 0) {
+            out.println("zip: archive '" + archiveName + "' is up to date");
             return;
         }
 
+        Path temp = Files.createTempFile(archivePath.getParent(), ".zip-update", ".tmp");
         try {
-            Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
-                @Override
-                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                    Path targetDir = destination.resolve(source.relativize(dir));
-                    if (!Files.exists(targetDir)) {
-                        Files.createDirectories(targetDir);
+            writeZip(temp, plan, threads, level);
+            if (cancelled()) {
+                fail("zip: cancelled, archive '" + archiveName + "' left unchanged");
+                return;
+            }
+            Files.move(temp, archivePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        out.println("zip: updated archive '" + archiveName + "' (" + changed + " new or changed, "
+                + (plan.size() - changed) + " unchanged)");
+    }
+
+    // Compresses on `threads` workers while this thread writes entries in input order.
+    private boolean writeZip(Path archivePath, List<ZipSource> sources, int threads, int level) throws IOException {
+        ExecutorService pool = threads > 0 ? Executors.newFixedThreadPool(threads, ResourceUsage.WORKERS) : null;
+        int window = threads > 0 ? threads * 2 : 1;
+        Deque<Future<CompressedEntry>> pending = new ArrayDeque<>();
+        Deque<ZipSource> pendingSources = new ArrayDeque<>();
+        boolean addedFiles = false;
+        long written = 0;
+        ArchiveEvent event = new ArchiveEvent();
+        event.begin();
+
+        try (ZipWriter writer = new ZipWriter(archivePath)) {
+            Iterator<ZipSource> next = sources.iterator();
+            while ((next.hasNext() || !pending.isEmpty()) && !cancelled()) {
+                while (next.hasNext() && pending.size() < window) {
+                    ZipSource source = next.next();
+                    Callable<CompressedEntry> task = () -> source.unchanged != null ? source.unchanged
+                            : CompressedEntry.compress(source, level);
+                    if (pool != null) {
+                        pending.add(pool.submit(task));
+                    } else {
+                        FutureTask<CompressedEntry> inline = new FutureTask<>(task);
+                        inline.run();
+                        pending.add(inline);
                     }
-                    return FileVisitResult.CONTINUE;
+                    pendingSources.add(source);
                 }
 
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    Path targetFile = destination.resolve(source.relativize(file));
-                    Files.copy(file, targetFile, StandardCopyOption.REPLACE_EXISTING);
-                    return FileVisitResult.CONTINUE;
+                Future<CompressedEntry> future = pending.poll();
+                ZipSource source = pendingSources.poll();
+                CompressedEntry entry;
+                try {
+                    entry = future.get();
+                } catch (ExecutionException e) {
+                    fail("zip: error adding " + source.file + ": " + e.getCause().getMessage());
+                    continue;
                 }
-            });
-
-            System.out.println(
-                    "Copied directory recursively from " + source.getFileName() + " to " + destination.getFileName());
-        } catch (Exception e) {
-            System.out.println("cp -r: error copying directory: " + e.getMessage());
+                try {
+                    writer.write(entry);
+                    written++;
+                } finally {
+                    entry.release();
+                }
+                if (source.unchanged == null) {
+                    out.println(entry.describe(source.action));
+                }
+                addedFiles = true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while compressing");
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+            for (Future<CompressedEntry> future : pending) {
+                try {
+                    future.get().release();
+                } catch (Exception e) {
+                    // entry failed or was cancelled, nothing to clean up
+                }
+            }
+        }
+        if (event.shouldCommit()) {
+            event.operation = "zip";
+            event.record(archivePath, Files.size(archivePath), written);
         }
+        return addedFiles;
     }
 
-    // ---------- cat ----------
-    public void cat(String[] args) {
-        if (args == null || (args.length != 1 && args.length != 2)) {
-            System.out.println(
-                    "incorrect file name. Please use format: cat filename.extension or cat file1name.extension file2name.extension ....");
-            return;
+    // A compressed (or stored) zip entry with known CRC and sizes, ready for ZipWriter.
+    static class CompressedEntry {
+        static final long SPILL_THRESHOLD = 4L * 1024 * 1024;
+        // formats that are already compressed; deflating them only burns CPU
+        static final Set<String> COMPRESSED_EXTENSIONS = Set.of("jpg", "jpeg", "png", "gif", "webp", "heic",
+                "gz", "tgz", "bz2", "xz", "zst", "lz4", "zip", "jar", "war", "7z", "rar", "mp3", "m4a", "ogg",
+                "flac", "mp4", "mkv", "avi", "mov", "webm", "docx", "xlsx", "pptx", "woff", "woff2");
+        // larger files are trial-compressed on their first TRIAL_SIZE bytes and
+        // stored when that saves less than MIN_SAVINGS
+        static final int TRIAL_SIZE = 64 * 1024;
+        static final double MIN_SAVINGS = 0.05;
+
+        String name;
+        int method;
+        long crc;
+        long size;
+        long compressedSize;
+        long dosTime;
+        long nanos;
+        ByteArrayOutputStream data;
+        Path dataFile;
+        long dataOffset;
+        boolean deleteDataFile;
+
+        // level is 0-9 or Deflater.DEFAULT_COMPRESSION; 0 stores every entry
+        static CompressedEntry compress(ZipSource source, int level) throws IOException {
+            ZipEntryEvent event = new ZipEntryEvent();
+            event.begin();
+            long start = System.nanoTime();
+            BasicFileAttributes attrs = source.attrs != null ? source.attrs
+                    : Files.readAttributes(source.file, BasicFileAttributes.class);
+            CompressedEntry entry;
+            if (shouldStore(source, attrs.size(), level)) {
+                entry = store(source, attrs);
+            } else {
+                entry = deflate(source, attrs, level);
+                if (entry.compressedSize >= entry.size) {
+                    entry.release();
+                    entry = store(source, attrs);
+                }
+            }
+            entry.nanos = System.nanoTime() - start;
+            Metrics.read(entry.size);
+            event.compressedBytes = entry.compressedSize;
+            event.record(source.file, entry.size, 1);
+            return entry;
         }
 
-        for (String file_Name : args) {
-            if (file_Name.length() >= 2 &&
-                    (file_Name.charAt(0) == '"') &&
-                    (file_Name.charAt(file_Name.length() - 1) == '"')) {
-                file_Name = file_Name.substring(1, file_Name.length() - 1);
+        private static boolean shouldStore(ZipSource source, long size, int level) throws IOException {
+            if (level == 0) {
+                return true;
             }
-            Path file_Path = currentDirectory.resolve(file_Name).normalize();
-            if (!Files.exists(file_Path) || !Files.isRegularFile(file_Path)) {
-                System.out.println("\"" + file_Name + "\" No such file or the file not found!");
-                return;
+            int dot = source.entryName.lastIndexOf('.');
+            if (dot >= 0 && COMPRESSED_EXTENSIONS.contains(
+                    source.entryName.substring(dot + 1).toLowerCase(Locale.ROOT))) {
+                return true;
+            }
+            if (size < TRIAL_SIZE * 2) {
+                return false;
             }
 
+            byte[] sample;
+            try (InputStream in = Files.newInputStream(source.file)) {
+                sample = in.readNBytes(TRIAL_SIZE);
+            }
+            Deflater trial = new Deflater(Deflater.BEST_SPEED, true);
             try {
-                List<String> All_Lines = Files.readAllLines(file_Path);
-                for (String line : All_Lines) {
-                    System.out.println(line);
+                trial.setInput(sample);
+                trial.finish();
+                byte[] out = new byte[8 * 1024];
+                long compressed = 0;
+                while (!trial.finished()) {
+                    compressed += trial.deflate(out);
                 }
-                System.out.println("---------- End of " + file_Name + " ---------");
-            } catch (IOException e) {
-                System.out.println("cat: error reading " + file_Name);
+                return compressed > sample.length * (1 - MIN_SAVINGS);
+            } finally {
+                trial.end();
             }
         }
-    }
 
-    // ---------- wc ----------
-    public void wc(String[] args) {
-        if (args == null || args.length != 1) {
-            System.out.println("incorrect file name. Please use format: wc filename.extension");
-            return;
+        // stored entries are written straight from the source file
+        private static CompressedEntry store(ZipSource source, BasicFileAttributes attrs) throws IOException {
+            CompressedEntry entry = new CompressedEntry();
+            entry.name = source.entryName;
+            entry.method = ZipEntry.STORED;
+            entry.dosTime = ZipWriter.dosTime(attrs.lastModifiedTime().toMillis());
+
+            CRC32 crc = new CRC32();
+            ByteBuffer buffer = BufferArena.SHARED.direct(256 * 1024);
+            try (FileChannel channel = FileChannel.open(source.file, StandardOpenOption.READ)) {
+                long size = 0;
+                while (channel.read(buffer) != -1) {
+                    buffer.flip();
+                    size += buffer.remaining();
+                    crc.update(buffer);
+                    buffer.clear();
+                }
+                entry.size = size;
+            } finally {
+                BufferArena.SHARED.release(buffer);
+            }
+            entry.crc = crc.getValue();
+            entry.compressedSize = entry.size;
+            entry.dataFile = source.file;
+            return entry;
         }
 
-        String fileName = args[0];
+        private static CompressedEntry deflate(ZipSource source, BasicFileAttributes attrs, int level)
+                throws IOException {
+            CompressedEntry entry = new CompressedEntry();
+            entry.name = source.entryName;
+            entry.method = ZipEntry.DEFLATED;
+            entry.dosTime = ZipWriter.dosTime(attrs.lastModifiedTime().toMillis());
 
-        if ((fileName.charAt(0) == '"') && (fileName.charAt(fileName.length() - 1) == '"')) {
-            fileName = fileName.substring(1, fileName.length() - 1);
-        }
+            OutputStream sink;
+            if (attrs.size() > SPILL_THRESHOLD) {
+                entry.dataFile = Files.createTempFile("terminal-zip", ".tmp");
+                entry.deleteDataFile = true;
+                sink = Files.newOutputStream(entry.dataFile);
+            } else {
+                entry.data = new ByteArrayOutputStream((int) Math.max(64, attrs.size() / 2));
+                sink = entry.data;
+            }
 
-        Path filePath = currentDirectory.resolve(fileName).normalize();
+            CRC32 crc = new CRC32();
+            Deflater deflater = new Deflater(level, true);
+            try (InputStream in = new CheckedInputStream(Files.newInputStream(source.file), crc);
+                    DeflaterOutputStream out = new DeflaterOutputStream(sink, deflater, 64 * 1024)) {
+                BufferArena.SHARED.transfer(in, out);
+                out.finish();
+                entry.size = deflater.getBytesRead();
+                entry.compressedSize = deflater.getBytesWritten();
+                entry.crc = crc.getValue();
+            } catch (IOException e) {
+                entry.release();
+                throw e;
+            } finally {
+                deflater.end();
+            }
+            return entry;
+        }
 
-        if (!Files.exists(filePath) || !Files.isRegularFile(filePath)) {
-            System.out.println("\"" + fileName + "\" No such file or the file not found!");
-            return;
+        String describe(String action) {
+            long saved = size == 0 ? 0 : 100 - compressedSize * 100 / size;
+            return String.format("  %s: %s (%s %d%%, %d -> %d bytes, %.1f ms)", action, name,
+                    method == ZipEntry.STORED ? "stored" : "deflated", saved, size, compressedSize, nanos / 1e6);
         }
 
-        try {
-            List<String> All_Lines = Files.readAllLines(filePath);
-            int line_Count = All_Lines.size();
-            int word_Count = 0;
-            int char_Count = 0;
+        // entries of an existing archive, pointing at their still-compressed data
+        static List<CompressedEntry> readArchive(Path archive) throws IOException {
+            try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+                long fileSize = channel.size();
+                int tailLength = (int) Math.min(fileSize, 22 + 0xFFFF);
+                ByteBuffer tail = readAt(channel, fileSize - tailLength, tailLength);
+                int eocd = -1;
+                for (int i = tailLength - 22; i >= 0; i--) {
+                    if (tail.getInt(i) == 0x06054b50) {
+                        eocd = i;
+                        break;
+                    }
+                }
+                if (eocd < 0) {
+                    throw new ZipException("end of central directory not found");
+                }
+                long count = tail.getShort(eocd + 10) & 0xFFFF;
+                long cdSize = tail.getInt(eocd + 12) & 0xFFFFFFFFL;
+                long cdOffset = tail.getInt(eocd + 16) & 0xFFFFFFFFL;
+                if (eocd >= 20 && tail.getInt(eocd - 20) == 0x07064b50) {
+                    ByteBuffer end = readAt(channel, tail.getLong(eocd - 20 + 8), 56);
+                    if (end.getInt(0) != 0x06064b50) {
+                        throw new ZipException("invalid zip64 end of central directory");
+                    }
+                    count = end.getLong(32);
+                    cdSize = end.getLong(40);
+                    cdOffset = end.getLong(48);
+                }
+                if (cdSize > Integer.MAX_VALUE) {
+                    throw new ZipException("central directory too large");
+                }
 
-            for (String line : All_Lines) {
-                if (!line.trim().isEmpty()) {
-                    word_Count += line.trim().split("\\s+").length;
-                } else {
-                    word_Count += 0;
+                ByteBuffer cd = readAt(channel, cdOffset, (int) cdSize);
+                List<CompressedEntry> entries = new ArrayList<>();
+                int p = 0;
+                for (long i = 0; i < count; i++) {
+                    if (cd.getInt(p) != 0x02014b50) {
+                        throw new ZipException("invalid central directory entry");
+                    }
+                    if ((cd.getShort(p + 8) & 0x0001) != 0) {
+                        throw new ZipException("encrypted entries are not supported");
+                    }
+                    CompressedEntry entry = new CompressedEntry();
+                    entry.method = cd.getShort(p + 10) & 0xFFFF;
+                    entry.dosTime = cd.getInt(p + 12) & 0xFFFFFFFFL;
+                    entry.crc = cd.getInt(p + 16) & 0xFFFFFFFFL;
+                    entry.compressedSize = cd.getInt(p + 20) & 0xFFFFFFFFL;
+                    entry.size = cd.getInt(p + 24) & 0xFFFFFFFFL;
+                    int nameLength = cd.getShort(p + 28) & 0xFFFF;
+                    int extraLength = cd.getShort(p + 30) & 0xFFFF;
+                    int commentLength = cd.getShort(p + 32) & 0xFFFF;
+                    long offset = cd.getInt(p + 42) & 0xFFFFFFFFL;
+                    byte[] name = new byte[nameLength];
+                    cd.get(p + 46, name);
+                    entry.name = new String(name, StandardCharsets.UTF_8);
+
+                    int extra = p + 46 + nameLength;
+                    int extraEnd = extra + extraLength;
+                    while (extra + 4 <= extraEnd) {
+                        int id = cd.getShort(extra) & 0xFFFF;
+                        int length = cd.getShort(extra + 2) & 0xFFFF;
+                        if (id == 0x0001) {
+                            int q = extra + 4;
+                            if (entry.size == ZipWriter.ZIP64_MAGIC) {
+                                entry.size = cd.getLong(q);
+                                q += 8;
+                            }
+                            if (entry.compressedSize == ZipWriter.ZIP64_MAGIC) {
+                                entry.compressedSize = cd.getLong(q);
+                                q += 8;
+                            }
+                            if (offset == ZipWriter.ZIP64_MAGIC) {
+                                offset = cd.getLong(q);
+                            }
+                        }
+                        extra += 4 + length;
+                    }
+                    p = extraEnd + commentLength;
+
+                    ByteBuffer local = readAt(channel, offset, 30);
+                    if (local.getInt(0) != 0x04034b50) {
+                        throw new ZipException("invalid local header for " + entry.name);
+                    }
+                    entry.dataFile = archive;
+                    entry.dataOffset = offset + 30 + (local.getShort(26) & 0xFFFF) + (local.getShort(28) & 0xFFFF);
+                    entries.add(entry);
                 }
-                char_Count += line.length() + 1;
+                return entries;
             }
+        }
 
-            System.out.println(line_Count + " " + word_Count + " " + char_Count + " " + fileName);
-        } catch (IOException e) {
-            System.out.println("wc: error reading " + fileName);
+        private static ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException("unexpected end of archive");
+                }
+            }
+            return buffer;
         }
-    }
 
-    // ------------- zip---------------
-    public void zip(String[] args, boolean recursive) {
-        if (recursive) {
-            if (args.length < 2) {
-                System.out.println("zip: usage: zip -r <archive.zip> <directory>");
+        void writeData(OutputStream out) throws IOException {
+            if (data != null) {
+                data.writeTo(out);
                 return;
             }
-        } else {
-            if (args.length < 2) {
-                System.out.println("zip: usage: zip <archive.zip> <file1> [file2] ...");
-                return;
+            byte[] bytes = BufferArena.SHARED.heap(64 * 1024);
+            try (FileChannel channel = FileChannel.open(dataFile, StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                long position = dataOffset;
+                long end = dataOffset + compressedSize;
+                while (position < end) {
+                    buffer.clear().limit((int) Math.min(bytes.length, end - position));
+                    int n = channel.read(buffer, position);
+                    if (n <= 0) {
+                        throw new EOFException("unexpected end of entry data for " + name);
+                    }
+                    out.write(bytes, 0, n);
+                    position += n;
+                }
+            } finally {
+                BufferArena.SHARED.release(bytes);
             }
         }
 
-        String archiveName = args[0];
-        if (archiveName.length() >= 2 &&
-                (archiveName.charAt(0) == '"') &&
-                (archiveName.charAt(archiveName.length() - 1) == '"')) {
-            archiveName = archiveName.substring(1, archiveName.length() - 1);
+        void release() {
+            data = null;
+            if (deleteDataFile) {
+                try {
+                    Files.deleteIfExists(dataFile);
+                } catch (IOException e) {
+                    // temp file is left behind, nothing else to do
+                }
+            }
         }
+    }
 
-        if (!archiveName.endsWith(".zip")) {
-            archiveName += ".zip";
+    // Writes CompressedEntry objects as a zip archive, with Zip64 records only when needed.
+    static class ZipWriter implements Closeable {
+        static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+        private static final int UTF8_FLAG = 0x0800;
+
+        private final OutputStream out;
+        private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+        private long position;
+        private long entryCount;
+
+        ZipWriter(Path archivePath) throws IOException {
+            out = new BufferedOutputStream(Files.newOutputStream(archivePath), 64 * 1024);
         }
 
-        try {
-            Path archivePath = currentDirectory.resolve(archiveName).normalize(); // archivePath now have the absolute
-                                                                                  // path of the zip file
+        void write(CompressedEntry entry) throws IOException {
+            byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+            long offset = position;
+            boolean zip64 = entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC;
+            boolean offset64 = offset >= ZIP64_MAGIC;
+            long dosTime = entry.dosTime;
 
-            Path parentDir = archivePath.getParent(); // is the same as currentDirectory here
-            if (parentDir != null && !Files.exists(parentDir)) {
-                Files.createDirectories(parentDir);
+            put32(out, 0x04034b50);
+            put16(out, zip64 ? 45 : 20);
+            put16(out, UTF8_FLAG);
+            put16(out, entry.method);
+            put32(out, dosTime);
+            put32(out, entry.crc);
+            put32(out, zip64 ? ZIP64_MAGIC : entry.compressedSize);
+            put32(out, zip64 ? ZIP64_MAGIC : entry.size);
+            put16(out, name.length);
+            put16(out, zip64 ? 20 : 0);
+            out.write(name);
+            if (zip64) {
+                put16(out, 0x0001);
+                put16(out, 16);
+                put64(out, entry.size);
+                put64(out, entry.compressedSize);
             }
+            entry.writeData(out);
+            position += 30 + name.length + (zip64 ? 20 : 0) + entry.compressedSize;
+            Metrics.written(position - offset);
 
-            try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(archivePath.toFile()))) {
-                boolean addedFiles = false;
+            int extraLength = (zip64 ? 16 : 0) + (offset64 ? 8 : 0);
+            OutputStream cd = centralDirectory;
+            put32(cd, 0x02014b50);
+            put16(cd, zip64 || offset64 ? 45 : 20);
+            put16(cd, zip64 || offset64 ? 45 : 20);
+            put16(cd, UTF8_FLAG);
+            put16(cd, entry.method);
+            put32(cd, dosTime);
+            put32(cd, entry.crc);
+            put32(cd, zip64 ? ZIP64_MAGIC : entry.compressedSize);
+            put32(cd, zip64 ? ZIP64_MAGIC : entry.size);
+            put16(cd, name.length);
+            put16(cd, extraLength > 0 ? extraLength + 4 : 0);
+            put16(cd, 0); // comment length
+            put16(cd, 0); // disk number
+            put16(cd, 0); // internal attributes
+            put32(cd, 0); // external attributes
+            put32(cd, offset64 ? ZIP64_MAGIC : offset);
+            cd.write(name);
+            if (extraLength > 0) {
+                put16(cd, 0x0001);
+                put16(cd, extraLength);
+                if (zip64) {
+                    put64(cd, entry.size);
+                    put64(cd, entry.compressedSize);
+                }
+                if (offset64) {
+                    put64(cd, offset);
+                }
+            }
+            entryCount++;
+        }
 
-                for (int i = 1; i < args.length; i++) {
-                    String inputName = args[i];
-                    if (inputName.length() >= 2 &&
-                            (inputName.charAt(0) == '"') &&
-                            (inputName.charAt(inputName.length() - 1) == '"')) {
-                        inputName = inputName.substring(1, inputName.length() - 1);
-                    }
-                    Path inputPath = currentDirectory.resolve(inputName).normalize(); // inputPath is -> the path of the
-                                                                                      // current dir + inputFolderName
+        @Override
+        public void close() throws IOException {
+            try {
+                long cdOffset = position;
+                long cdSize = centralDirectory.size();
+                centralDirectory.writeTo(out);
+                position += cdSize;
 
-                    if (!Files.exists(inputPath)) {
-                        System.out.println("zip: warning: '" + inputName + "' not found, skipping");
-                        continue;
-                    }
-                    // this for recursive part
-                    if (Files.isDirectory(inputPath)) {
-                        if (recursive) {
-                            Files.walk(inputPath)
-                                    .filter(path -> Files.isRegularFile(path))
-                                    .forEach(file -> {
-                                        try {
-                                            Path relativePath = inputPath.relativize(file);
-                                            String entryName = inputPath.getFileName().toString() + "/" +
-                                                    relativePath.toString().replace("\\", "/");
-
-                                            ZipEntry entry = new ZipEntry(entryName);
-                                            zos.putNextEntry(entry);
-                                            Files.copy(file, zos);
-                                            zos.closeEntry();
-                                            System.out.println("  adding: " + entryName);
-                                        } catch (IOException e) {
-                                            System.out.println("zip: error adding " + file + ": " + e.getMessage());
-                                        }
-                                    });
-                            addedFiles = true;
-                        } else {
-                            System.out
-                                    .println("zip: error: '" + inputName + "' is a directory (use -r for directories)");
-                            return;
-                        }
-                    } else if (Files.isRegularFile(inputPath)) {
-                        ZipEntry entry = new ZipEntry(inputPath.getFileName().toString());
-                        zos.putNextEntry(entry);
-                        Files.copy(inputPath, zos);
-                        zos.closeEntry();
-                        System.out.println("  adding: " + inputName);
-                        addedFiles = true;
-                    } else {
-                        System.out.println(
-                                "zip: warning: '" + inputName + "' is not a regular file or directory, skipping");
-                    }
+                if (entryCount >= 0xFFFF || cdOffset >= ZIP64_MAGIC || cdSize >= ZIP64_MAGIC) {
+                    long zip64End = position;
+                    put32(out, 0x06064b50);
+                    put64(out, 44);
+                    put16(out, 45);
+                    put16(out, 45);
+                    put32(out, 0);
+                    put32(out, 0);
+                    put64(out, entryCount);
+                    put64(out, entryCount);
+                    put64(out, cdSize);
+                    put64(out, cdOffset);
+                    put32(out, 0x07064b50);
+                    put32(out, 0);
+                    put64(out, zip64End);
+                    put32(out, 1);
+                    position += 56 + 20;
                 }
 
-                if (addedFiles) {
-                    System.out.println("zip: created archive '" + archiveName + "'");
-                } else {
-                    System.out.println("zip: no files were added to archive");
-                    Files.deleteIfExists(archivePath);
-                }
+                put32(out, 0x06054b50);
+                put16(out, 0);
+                put16(out, 0);
+                put16(out, (int) Math.min(entryCount, 0xFFFF));
+                put16(out, (int) Math.min(entryCount, 0xFFFF));
+                put32(out, Math.min(cdSize, ZIP64_MAGIC));
+                put32(out, Math.min(cdOffset, ZIP64_MAGIC));
+                put16(out, 0);
+                position += 22;
+                Metrics.written(position - cdOffset);
+            } finally {
+                out.close();
+            }
+        }
 
-            } catch (IOException e) {
-                System.out.println("zip: failed to create archive '" + archiveName + "': " + e.getMessage());
+        static long dosTime(long millis) {
+            LocalDateTime t = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+            if (t.getYear() < 1980) {
+                return (1 << 21) | (1 << 16);
             }
+            return ((long) (t.getYear() - 1980) << 25) | (t.getMonthValue() << 21) | (t.getDayOfMonth() << 16)
+                    | (t.getHour() << 11) | (t.getMinute() << 5) | (t.getSecond() >> 1);
+        }
 
-        } catch (IOException e) {
-            System.out.println("zip: failed to create archive '" + archiveName + "': " + e.getMessage());
+        private static void put16(OutputStream out, int v) throws IOException {
+            out.write(v & 0xFF);
+            out.write((v >>> 8) & 0xFF);
+        }
+
+        private static void put32(OutputStream out, long v) throws IOException {
+            put16(out, (int) (v & 0xFFFF));
+            put16(out, (int) ((v >>> 16) & 0xFFFF));
+        }
+
+        private static void put64(OutputStream out, long v) throws IOException {
+            put32(out, v & ZIP64_MAGIC);
+            put32(out, v >>> 32);
         }
     }
 
     // ---------- unzip ----------
     public void unzip(String[] args) {
-        if (args == null || args.length < 1 || args.length > 2) {
-            System.out.println("unzip: usage: unzip <archive.zip> [destination]");
+        Flags flags;
+        int threads;
+        try {
+            flags = Flags.parse(args == null ? new String[0] : args, "", "j");
+            threads = flags.intValue('j', Runtime.getRuntime().availableProcessors());
+        } catch (IllegalArgumentException e) {
+            fail("unzip: " + e.getMessage());
+            return;
+        }
+        List<String> operands = flags.operands();
+        if (operands.isEmpty()) {
+            fail("unzip: usage: unzip [-j N] <archive.zip> [destination] [pattern...]");
             return;
         }
 
-        String archiveName = args[0];
+        String archiveName = operands.get(0);
         if (archiveName.length() >= 2 &&
                 (archiveName.charAt(0) == '"') &&
                 (archiveName.charAt(archiveName.length() - 1) == '"')) {
@@ -795,7 +5622,7 @@ class Terminal {
             archiveName += ".zip";
         }
 
-        String destStr = args.length == 2 ? args[1] : ".";
+        String destStr = operands.size() >= 2 ? operands.get(1) : ".";
         if (destStr.length() >= 2 &&
                 (destStr.charAt(0) == '"') &&
                 (destStr.charAt(destStr.length() - 1) == '"')) {
@@ -816,119 +5643,442 @@ class Terminal {
             destPath = destPath.toAbsolutePath().normalize();
 
             if (!Files.exists(archivePath)) {
-                System.out.println("unzip: cannot find archive '" + archiveName + "'");
+                fail("unzip: cannot find archive '" + archiveName + "'");
                 return;
             }
 
             if (!Files.isRegularFile(archivePath)) {
-                System.out.println("unzip: '" + archiveName + "' is not a regular file");
+                fail("unzip: '" + archiveName + "' is not a regular file");
                 return;
             }
 
+            List<PathMatcher> matchers = new ArrayList<>();
+            for (String pattern : operands.subList(Math.min(2, operands.size()), operands.size())) {
+                if (pattern.length() >= 2 && pattern.charAt(0) == '"' && pattern.charAt(pattern.length() - 1) == '"') {
+                    pattern = pattern.substring(1, pattern.length() - 1);
+                }
+                // * matches across '/' as in Info-ZIP, so '*.jpg' also finds tree/pic.jpg
+                String glob = pattern.replace("**", "*").replace("*", "**");
+                matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+            }
+
             if (!Files.exists(destPath)) {
                 Files.createDirectories(destPath);
             }
 
-            try (ZipInputStream zis = new ZipInputStream(new FileInputStream(archivePath.toFile()))) {
-                ZipEntry zipEntry;
-                while ((zipEntry = zis.getNextEntry()) != null) {
+            listingCache.invalidateTree(destPath);
+            try (ZipFile zipFile = new ZipFile(archivePath.toFile())) {
+                // one pass over the central directory: validate every target
+                // against destPath and collect the directories to create
+                Set<Path> directories = new TreeSet<>();
+                List<ZipEntry> files = new ArrayList<>();
+                List<Path> targets = new ArrayList<>();
+                Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry zipEntry = entries.nextElement();
+                    if (!matchesAny(matchers, zipEntry.getName())) {
+                        continue;
+                    }
                     Path extractPath = destPath.resolve(zipEntry.getName()).normalize();
+                    if (!extractPath.startsWith(destPath) || extractPath.equals(destPath)) {
+                        out.println("  skipping: " + zipEntry.getName() + " (outside destination)");
+                        continue;
+                    }
 
                     if (zipEntry.isDirectory()) {
-                        Files.createDirectories(extractPath);
+                        directories.add(extractPath);
                     } else {
                         Path parent = extractPath.getParent();
-                        if (parent != null && !Files.exists(parent)) {
-                            Files.createDirectories(parent);
+                        if (parent != null && !parent.equals(destPath)) {
+                            directories.add(parent);
                         }
-
-                        Files.copy(zis, extractPath, StandardCopyOption.REPLACE_EXISTING);
-                        System.out.println("  extracting: " + zipEntry.getName());
+                        files.add(zipEntry);
+                        targets.add(extractPath);
                     }
-                    zis.closeEntry();
                 }
-                System.out.println("unzip: extracted archive '" + archiveName + "' to '" + destStr + "'");
+
+                for (Path dir : directories) {
+                    Files.createDirectories(dir);
+                }
+
+                if (!matchers.isEmpty() && files.isEmpty() && directories.isEmpty()) {
+                    fail("unzip: no entries in '" + archiveName + "' match the given patterns");
+                    return;
+                }
+
+                ArchiveEvent event = new ArchiveEvent();
+                event.begin();
+                extractEntries(zipFile, files, targets, threads);
+                if (event.shouldCommit()) {
+                    event.operation = "unzip";
+                    event.record(archivePath, Files.size(archivePath), files.size());
+                }
+                if (cancelled()) {
+                    fail("unzip: cancelled");
+                    return;
+                }
+                out.println("unzip: extracted archive '" + archiveName + "' to '" + destStr + "'");
             }
 
         } catch (InvalidPathException e) {
-            System.out.println("unzip: failed to extract archive '" + archiveName + "': Invalid path");
+            fail("unzip: failed to extract archive '" + archiveName + "': Invalid path");
         } catch (IOException e) {
-            System.out.println("unzip: failed to extract archive '" + archiveName + "': " + e.getMessage());
+            fail("unzip: failed to extract archive '" + archiveName + "': " + e.getMessage());
+        }
+    }
+
+    private static boolean matchesAny(List<PathMatcher> matchers, String entryName) {
+        if (matchers.isEmpty()) {
+            return true;
+        }
+        Path name = Paths.get(entryName);
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Inflates the entries on `threads` workers straight from the archive's
+    // central directory; progress lines are still printed in archive order.
+    private void extractEntries(ZipFile zipFile, List<ZipEntry> files, List<Path> targets, int threads)
+            throws IOException {
+        if (threads <= 1) {
+            for (int i = 0; i < files.size() && !cancelled(); i++) {
+                try {
+                    extractEntry(zipFile, files.get(i), targets.get(i));
+                    out.println("  extracting: " + files.get(i).getName());
+                } catch (IOException e) {
+                    fail("unzip: error extracting " + files.get(i).getName() + ": " + e.getMessage());
+                }
+            }
+            return;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads, ResourceUsage.WORKERS);
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for (int i = 0; i < files.size() && !cancelled(); i++) {
+                ZipEntry zipEntry = files.get(i);
+                Path target = targets.get(i);
+                results.add(pool.submit(() -> {
+                    extractEntry(zipFile, zipEntry, target);
+                    return null;
+                }));
+            }
+
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    results.get(i).get();
+                    out.println("  extracting: " + files.get(i).getName());
+                } catch (ExecutionException e) {
+                    fail("unzip: error extracting " + files.get(i).getName() + ": "
+                            + e.getCause().getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while extracting");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void extractEntry(ZipFile zipFile, ZipEntry zipEntry, Path target) throws IOException {
+        UnzipEntryEvent event = new UnzipEntryEvent();
+        event.begin();
+        long bytes;
+        try (InputStream in = zipFile.getInputStream(zipEntry)) {
+            bytes = ioBackend.write(in, target, zipEntry.getSize());
+        }
+        Metrics.written(bytes);
+        Metrics.read(zipEntry.getCompressedSize());
+        event.compressedBytes = zipEntry.getCompressedSize();
+        event.record(target, bytes, 1);
+    }
+
+    // ---------- jobs, fg, wait, kill ----------
+    public void jobs(String[] args) {
+        if (args != null && args.length > 0) {
+            fail("jobs: takes no arguments");
+            return;
+        }
+        for (Job job : jobs.all()) {
+            out.println(job.describe());
+            if (job.isDone()) {
+                jobs.remove(job);
+            }
+        }
+    }
+
+    public void fg(String[] args) {
+        if (args != null && args.length > 1) {
+            fail("fg: usage: fg [N]");
+            return;
+        }
+        Job job = args == null || args.length == 0 ? jobs.latest() : jobs.find(args[0]);
+        if (job == null) {
+            fail(args == null || args.length == 0 ? "fg: no current job" : "fg: " + args[0] + ": no such job");
+            return;
+        }
+        out.println(job.command);
+        out.flush();
+        awaitJob(job);
+    }
+
+    // wait [N...]: waits for the given jobs, or for all of them
+    public void waitJobs(String[] args) {
+        List<Job> waitFor = new ArrayList<>();
+        if (args == null || args.length == 0) {
+            waitFor.addAll(jobs.all());
+        } else {
+            for (String spec : args) {
+                Job job = jobs.find(spec);
+                if (job == null) {
+                    fail("wait: " + spec + ": no such job");
+                    return;
+                }
+                waitFor.add(job);
+            }
+        }
+        for (Job job : waitFor) {
+            awaitJob(job);
+        }
+        if (args == null || args.length == 0) {
+            status = 0;
+        }
+    }
+
+    // the exit status of the job becomes the status of fg or wait
+    private void awaitJob(Job job) {
+        if (job == this.job) {
+            return; // a job waiting for itself would never finish
+        }
+        try {
+            status = job.await();
+            jobs.remove(job);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            status = 1;
+        }
+    }
+
+    public void kill(String[] args) {
+        if (args == null || args.length == 0) {
+            fail("kill: usage: kill N...");
+            return;
+        }
+        for (String spec : args) {
+            Job job = jobs.find(spec);
+            if (job == null) {
+                fail("kill: " + spec + ": no such job");
+            } else {
+                job.killed = true;
+            }
+        }
+    }
+
+    // ---------- stats ----------
+    public void stats(String[] args) {
+        Flags flags;
+        try {
+            flags = Flags.parse(args == null ? new String[0] : args, "r", "f");
+        } catch (IllegalArgumentException e) {
+            fail("stats: " + e.getMessage());
+            return;
+        }
+        String format = flags.value('f', "text");
+        if (!flags.operands().isEmpty() || !(format.equals("text") || format.equals("json"))) {
+            fail("stats: usage: stats [-f text|json] [-r]");
+            return;
+        }
+
+        Map<String, Metrics.CommandMetrics> commands = Metrics.snapshot();
+        BufferArena arena = BufferArena.SHARED;
+        if (format.equals("json")) {
+            StringBuilder json = new StringBuilder("{\"commands\":{");
+            String separator = "";
+            for (Map.Entry<String, Metrics.CommandMetrics> e : commands.entrySet()) {
+                LatencyHistogram latency = e.getValue().latency;
+                json.append(separator).append('"').append(e.getKey()).append("\":{")
+                        .append("\"count\":").append(latency.count())
+                        .append(",\"totalNanos\":").append(latency.totalNanos())
+                        .append(",\"meanNanos\":").append(latency.mean())
+                        .append(",\"p50Nanos\":").append(latency.percentile(50))
+                        .append(",\"p90Nanos\":").append(latency.percentile(90))
+                        .append(",\"p99Nanos\":").append(latency.percentile(99))
+                        .append(",\"maxNanos\":").append(latency.max())
+                        .append(",\"bytes\":").append(e.getValue().bytes.sum())
+                        .append('}');
+                separator = ",";
+            }
+            json.append("},\"bytesRead\":").append(Metrics.bytesRead())
+                    .append(",\"bytesWritten\":").append(Metrics.bytesWritten())
+                    .append(",\"buffers\":{\"hits\":").append(arena.hits())
+                    .append(",\"misses\":").append(arena.misses())
+                    .append(",\"dropped\":").append(arena.dropped())
+                    .append(",\"inUseBytes\":").append(arena.inUseBytes())
+                    .append(",\"peakBytes\":").append(arena.peakBytes())
+                    .append(",\"pooledBytes\":").append(arena.pooledBytes())
+                    .append(",\"capBytes\":").append(arena.capBytes()).append("}}");
+            out.println(json);
+        } else {
+            out.println(String.format("%-8s %7s %10s %10s %10s %10s %10s %10s %10s", "command", "count", "total",
+                    "mean", "p50", "p90", "p99", "max", "MB/s"));
+            for (Map.Entry<String, Metrics.CommandMetrics> e : commands.entrySet()) {
+                LatencyHistogram latency = e.getValue().latency;
+                long bytes = e.getValue().bytes.sum();
+                double seconds = latency.totalNanos() / 1e9;
+                String throughput = bytes == 0 || seconds == 0 ? "-"
+                        : String.format("%.1f", bytes / (1024.0 * 1024.0) / seconds);
+                out.println(String.format("%-8s %7d %10s %10s %10s %10s %10s %10s %10s", e.getKey(),
+                        latency.count(), Metrics.formatNanos(latency.totalNanos()),
+                        Metrics.formatNanos(latency.mean()), Metrics.formatNanos(latency.percentile(50)),
+                        Metrics.formatNanos(latency.percentile(90)), Metrics.formatNanos(latency.percentile(99)),
+                        Metrics.formatNanos(latency.max()), throughput));
+            }
+            out.println("file I/O: " + Metrics.formatBytes(Metrics.bytesRead()) + " read, "
+                    + Metrics.formatBytes(Metrics.bytesWritten()) + " written");
+            long requests = arena.hits() + arena.misses();
+            out.println(String.format("buffers: %d requests, %d hits (%.1f%%), %d misses, %d dropped; "
+                    + "%s in use, peak %s, %s pooled of %s", requests, arena.hits(),
+                    requests == 0 ? 0.0 : arena.hits() * 100.0 / requests, arena.misses(), arena.dropped(),
+                    Metrics.formatBytes(arena.inUseBytes()), Metrics.formatBytes(arena.peakBytes()),
+                    Metrics.formatBytes(arena.pooledBytes()), Metrics.formatBytes(arena.capBytes())));
+        }
+        if (flags.has('r')) {
+            Metrics.reset();
+            arena.reset();
         }
     }
 
     // ---------- pwd ----------
-    public void pwd() {
-        if (!parser.getArgs().isEmpty()) {
-            System.out.println("Error this command takes no arguments ");
+    public void pwd(String[] args) {
+        if (args != null && args.length > 0) {
+            fail("Error this command takes no arguments ");
         } else {
-            System.out.println(currentDirectory);
+            out.println(currentDirectory);
         }
     }
 
     // ---------- touch ----------
     public void touch(String[] args) {
-        if (args == null || args.length != 1) {
-            System.out.println("touch: usage: touch <filename>");
+        if (args == null || args.length == 0) {
+            fail("touch: usage: touch <filename...>");
             return;
         }
 
-        String filename = args[0];
-        if ((filename.charAt(0) == '"') && (filename.charAt(filename.length() - 1) == '"')) {
-            filename = filename.substring(1, filename.length() - 1);
-        }
+        for (String filename : args) {
+            if ((filename.charAt(0) == '"') && (filename.charAt(filename.length() - 1) == '"')) {
+                filename = filename.substring(1, filename.length() - 1);
+            }
 
-        try {
-            Path filePath = currentDirectory.resolve(filename).normalize();
-            if (!Files.exists(filePath)) {
-                Files.createFile(filePath);
-                System.out.println("File created: " + filename);
-            } else {
-                if (Files.isDirectory(filePath)) {
-                    System.out.println("Error: Cannot create a file in a directory without file name.");
+            try {
+                Path filePath = currentDirectory.resolve(filename).normalize();
+                if (!Files.exists(filePath)) {
+                    Files.createFile(filePath);
+                    listingCache.invalidate(filePath.getParent());
+                    out.println("File created: " + filename);
                 } else {
-                    System.out.println("Warning: File already exists: " + filePath.getFileName());
+                    if (Files.isDirectory(filePath)) {
+                        fail("Error: Cannot create a file in a directory without file name.");
+                    } else {
+                        out.println("Warning: File already exists: " + filePath.getFileName());
+                    }
                 }
+
+            } catch (InvalidPathException e) {
+                fail("Error: Invalid file path ");
+            } catch (IOException e) {
+                fail("Error: Invalid file ");
+            } catch (Exception e) {
+                fail("touch: error creating file '" + filename + "': " + e.getMessage());
             }
+        }
+    }
 
-        } catch (InvalidPathException e) {
-            System.out.println("Error: Invalid file path ");
-        } catch (IOException e) {
-            System.out.println("Error: Invalid file ");
-        } catch (Exception e) {
-            System.out.println("touch: error creating file '" + filename + "': " + e.getMessage());
-        }
-    }
-
-    private static void printHelp() {
-        System.out.println("Available commands:");
-        System.out.println("  ls              - List files in current directory");
-        System.out.println("  cd [dir]        - Change directory (cd .. to go back)");
-        System.out.println("  mkdir <dir...>  - Create one or more directories");
-        System.out.println("  rmdir <dir|*>   - Remove an empty directory or all empty ones");
-        System.out.println("  cp <src> <dest> - Copy a file");
-        System.out.println("  cp -r <src> <dest> - Copy directory recursively");
-        System.out.println("  rm <file>       - Remove a file");
-        System.out.println("  pwd             - Show current directory");
-        System.out.println("  touch <fileName>        - Creates file");
-        System.out.println("  Command > Filename    - Redirects output of command to a file (Replace) ");
-        System.out.println("  Command >> Filename    - Redirects output of command to a file (Append) ");
-        System.out.println("  wc              - Count number of lines and words in the file with the file name added");
-        System.out.println(
-                "  cat             - Print the file’s content or concatenates the content of the 2 files and prints it");
-        System.out.println("  zip archive_name.zip file1 file2         -compress 2 files ");
-        System.out.println("  zip -r archive_name.zip <dir>         -compress dir and subdirectories ");
-        System.out.println("  unzip archive_name.zip              - extract all files from a .zip ");
-        System.out.println("  help            - Show this help");
-        System.out.println("  exit            - Exit the terminal");
+    private void printHelp() {
+        out.println("Available commands:");
+        out.println("  ls [-laStR] [dir...] - List files (long format, all, by size, by time, recursive)");
+        out.println("  cd [dir]        - Change directory (cd .. to go back)");
+        out.println("  mkdir <dir...>  - Create one or more directories");
+        out.println("  rmdir [-p] <dir...|*> - Remove empty directories or all empty ones (-p: and their parents)");
+        out.println("  rmdir -s <dir|*> - Remove every directory that holds only empty directories");
+        out.println("  cp <src> <dest> - Copy a file");
+        out.println("  cp [-j N] <file...> <dir> - Copy files into a directory (N parallel copy threads)");
+        out.println("  cp -r [-j N] <src> <dest> - Copy directory recursively (N parallel copy threads)");
+        out.println("  sync [-v] [-j N] <src> <dest> - Mirror a directory, copying only files that changed");
+        out.println("  rm <file...>    - Remove files");
+        out.println("  rm -r [-j N] <path...> - Remove directories and their contents (N parallel threads)");
+        out.println("  pwd             - Show current directory");
+        out.println("  touch <fileName...>     - Creates files");
+        out.println("  Command > Filename    - Redirects output of command to a file (Replace) ");
+        out.println("  Command >> Filename    - Redirects output of command to a file (Append) ");
+        out.println("  cmd1 | cmd2 ...        - Pipes the output of a command into the next (cat, wc read it) ");
+        out.println("  wc [-l|-w|-c] <file...> - Count lines, words and bytes (with a total for several files)");
+        out.println("  cat [-n] <file...> - Print files one after another (-n numbers the lines)");
+        out.println("  cat -r <file...>   - Concatenate the raw bytes of the files, without banners");
+        out.println("  head|tail [-n N] <file...> - Print the first or last N lines (10 by default)");
+        out.println("  find [dir...] [-name glob] [-type f|d] [-size [+-]N[ckMG]] [-mtime [+-]N] - Find files");
+        out.println("  grep [-rinclF] [-j N] <pattern> [file|dir...] - Print matching lines (N parallel threads)");
+        out.println("  zip archive_name.zip file1 file2         -compress 2 files ");
+        out.println("  zip -r archive_name.zip <dir>         -compress dir and subdirectories ");
+        out.println("  zip [-r] -j N archive_name.zip ...    -compress with N parallel deflate threads ");
+        out.println("  zip [-r] -0..-9 archive_name.zip ...  -compression level (-0 stores only) ");
+        out.println("  zip -u [-r] archive_name.zip ...      -update: only compress new or changed files ");
+        out.println("  unzip archive_name.zip              - extract all files from a .zip ");
+        out.println("  unzip [-j N] archive_name.zip <dest> <glob...> - extract matching entries on N threads ");
+        out.println("  time <command>  - Run a command and report wall/CPU time, allocation and file I/O");
+        out.println("  stats [-f text|json] [-r] - Per-command count and latency percentiles, buffer arena use (-r resets them)");
+        out.println("  io [blocking | async [depth [chunkKB]]] - Show or switch the file I/O backend of cp and unzip");
+        out.println("  command &       - Run a command line in the background");
+        out.println("  jobs / fg [N] / wait [N...] / kill N - List, wait for or stop background jobs");
+        out.println("  *, ?, [abc], **, {a,b} - Wildcards in arguments expand to matching paths (quote to keep them)");
+        out.println("  help            - Show this help");
+        out.println("  exit            - Exit the terminal");
     }
 
     public Path getCurrentDirectory() {
         return currentDirectory;
     }
 
+    // java Terminal                   interactive shell
+    // java Terminal [-e] -c "cmd; cmd" run the given commands
+    // java Terminal [-e] script        run a script file ("-" reads stdin)
+    // -e stops at the first failing command; the exit status is 1 if any failed
     public static void main(String[] args) {
         Terminal terminal = new Terminal();
-        terminal.open();
+        if (args.length == 0) {
+            terminal.open();
+            return;
+        }
+
+        int i = 0;
+        boolean stopOnError = args[0].equals("-e");
+        if (stopOnError) {
+            i++;
+        }
+        if (i >= args.length || (args[i].equals("-c") && i + 1 >= args.length)) {
+            System.err.println("usage: java Terminal [-e] [-c \"commands\" | script | -]");
+            System.exit(2);
+        }
+
+        try {
+            BufferedReader script;
+            if (args[i].equals("-c")) {
+                script = new BufferedReader(new StringReader(splitCommands(args[i + 1])));
+            } else if (args[i].equals("-")) {
+                script = new BufferedReader(new InputStreamReader(System.in));
+            } else {
+                script = Files.newBufferedReader(Paths.get(args[i]));
+            }
+            try (script) {
+                System.exit(terminal.runBatch(script, stopOnError));
+            }
+        } catch (IOException | InvalidPathException e) {
+            System.err.println("terminal: cannot read script '" + args[i] + "': " + e.getMessage());
+            System.exit(2);
+        }
     }
 }
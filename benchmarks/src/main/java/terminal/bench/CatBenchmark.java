@@ -0,0 +1,50 @@
+package terminal.bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// cat of a text file into a discarding sink: read path plus output encoding.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CatBenchmark {
+    @Param({"1", "32"})
+    public int megabytes;
+
+    private Path root;
+    private TerminalHandle terminal;
+
+    @Setup
+    public void setup() throws IOException {
+        root = Fixtures.createRoot();
+        Fixtures.textFile(root.resolve("words.txt"), (long) megabytes << 20);
+        terminal = new TerminalHandle(root);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Fixtures.delete(root);
+    }
+
+    @Benchmark
+    public void cat() {
+        terminal.run("cat", "words.txt");
+    }
+}
@@ -0,0 +1,68 @@
+package terminal.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// cp of one file through each I/O backend; with the blocking one, sizes at
+// or above terminal.zeroCopyThreshold (64 MB by default) go through
+// transferTo. The source stays in the page cache, so this measures the copy
+// path rather than the disk.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CopyFileBenchmark {
+    @Param({"16", "256"})
+    public int megabytes;
+
+    @Param({"blocking", "async"})
+    public String io;
+
+    private Path root;
+    private Path destination;
+    private TerminalHandle terminal;
+
+    @Setup
+    public void setup() throws IOException {
+        root = Fixtures.createRoot();
+        Fixtures.binaryFile(root.resolve("huge.bin"), (long) megabytes << 20);
+        destination = root.resolve("copy.bin");
+        terminal = new TerminalHandle(root);
+        terminal.run("io", io);
+    }
+
+    // cp only copies onto an existing destination file
+    @Setup(Level.Invocation)
+    public void emptyDestination() throws IOException {
+        Files.deleteIfExists(destination);
+        Files.createFile(destination);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Fixtures.delete(root);
+    }
+
+    @Benchmark
+    public void cpFile() {
+        terminal.run("cp", "huge.bin", "copy.bin");
+    }
+}
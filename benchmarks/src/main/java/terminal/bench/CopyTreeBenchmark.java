@@ -0,0 +1,61 @@
+package terminal.bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// cp -r of many small files into an empty directory, with 1 and N copy threads.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CopyTreeBenchmark {
+    @Param({"20000"})
+    public int files;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private Path root;
+    private Path destination;
+    private TerminalHandle terminal;
+
+    @Setup
+    public void setup() throws IOException {
+        root = Fixtures.createRoot();
+        Fixtures.smallFiles(root.resolve("src"), files, 100, 4096);
+        destination = root.resolve("dest");
+        terminal = new TerminalHandle(root);
+    }
+
+    @Setup(Level.Invocation)
+    public void emptyDestination() throws IOException {
+        Fixtures.emptyDirectory(destination);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Fixtures.delete(root);
+    }
+
+    @Benchmark
+    public void cpTree() {
+        terminal.run("cp", "-r", "-j", Integer.toString(threads), "src", "dest");
+    }
+}
@@ -0,0 +1,119 @@
+package terminal.bench;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+
+// Generates benchmark inputs in a temp directory. Everything is derived from
+// a fixed seed, so two runs (and two branches being compared) see exactly
+// the same bytes, names and sizes.
+final class Fixtures {
+    static final long SEED = 20240611L;
+
+    private static final String[] WORDS = {
+            "the", "of", "and", "terminal", "file", "directory", "copy", "archive", "stream", "buffer",
+            "zip", "path", "channel", "thread", "a", "to", "in", "is", "with", "for",
+            "benchmark", "latency", "throughput", "kernel", "page", "cache", "entry", "deflate", "inflate", "byte",
+    };
+
+    private Fixtures() {
+    }
+
+    static Path createRoot() throws IOException {
+        return Files.createTempDirectory("terminal-bench-");
+    }
+
+    // about `bytes` of text: lines of 1 to 16 words, some of them tab separated
+    static Path textFile(Path file, long bytes) throws IOException {
+        Random random = new Random(SEED);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+            long written = 0;
+            while (written < bytes) {
+                int words = 1 + random.nextInt(16);
+                for (int i = 0; i < words; i++) {
+                    byte[] word = WORDS[random.nextInt(WORDS.length)].getBytes(StandardCharsets.US_ASCII);
+                    out.write(word);
+                    out.write(i == words - 1 ? '\n' : random.nextInt(8) == 0 ? '\t' : ' ');
+                    written += word.length + 1;
+                }
+            }
+        }
+        return file;
+    }
+
+    // pseudo-random bytes, which deflate cannot shrink
+    static Path binaryFile(Path file, long bytes) throws IOException {
+        Random random = new Random(SEED);
+        byte[] chunk = new byte[1 << 20];
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (long written = 0; written < bytes; written += chunk.length) {
+                random.nextBytes(chunk);
+                out.write(chunk, 0, (int) Math.min(chunk.length, bytes - written));
+            }
+        }
+        return file;
+    }
+
+    // `count` small text files of 0 to maxSize bytes spread over `dirs`
+    // subdirectories, the shape of a source tree
+    static Path smallFiles(Path dir, int count, int dirs, int maxSize) throws IOException {
+        Random random = new Random(SEED);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            Path sub = dir.resolve("d" + (i % dirs));
+            Files.createDirectories(sub);
+            int size = random.nextInt(maxSize + 1);
+            text.setLength(0);
+            while (text.length() < size) {
+                text.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(12) == 0 ? '\n' : ' ');
+            }
+            text.setLength(size);
+            Files.writeString(sub.resolve("f" + i + ".txt"), text, StandardCharsets.US_ASCII);
+        }
+        return dir;
+    }
+
+    // a single directory with `count` tiny files and names in shuffled order
+    static Path flatDirectory(Path dir, int count) throws IOException {
+        Random random = new Random(SEED);
+        Files.createDirectories(dir);
+        byte[] content = new byte[64];
+        for (int i = 0; i < count; i++) {
+            random.nextBytes(content);
+            Files.write(dir.resolve(Integer.toHexString(random.nextInt()) + "-" + i), content);
+        }
+        return dir;
+    }
+
+    // an empty directory at dir, removing whatever a previous invocation left there
+    static Path emptyDirectory(Path dir) throws IOException {
+        delete(dir);
+        return Files.createDirectories(dir);
+    }
+
+    static void delete(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,65 @@
+package terminal.bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// ls of one large directory. "cold" drops the cached listing before every
+// call so the directory is read again; "warm" is served from the cache.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LsBenchmark {
+    @Param({"20000"})
+    public int entries;
+
+    @Param({"plain", "-l"})
+    public String format;
+
+    @Param({"cold", "warm"})
+    public String cache;
+
+    private Path root;
+    private Path dir;
+    private TerminalHandle terminal;
+
+    @Setup
+    public void setup() throws IOException {
+        root = Fixtures.createRoot();
+        dir = Fixtures.flatDirectory(root.resolve("flat"), entries);
+        terminal = new TerminalHandle(root);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Fixtures.delete(root);
+    }
+
+    @Benchmark
+    public void ls() {
+        if (cache.equals("cold")) {
+            terminal.invalidateListing(dir);
+        }
+        if (format.equals("plain")) {
+            terminal.run("ls", "flat");
+        } else {
+            terminal.run("ls", format, "flat");
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package terminal.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Cost of tokenizing one command line, the per-line overhead of batch mode.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+    @Param({"simple", "quoted", "pipeline"})
+    public String shape;
+
+    private String line;
+    private Object parser;
+
+    @Setup
+    public void setup() {
+        parser = TerminalHandle.newParser();
+        switch (shape) {
+            case "simple":
+                line = "cp -r -j 4 src/main dest";
+                break;
+            case "quoted":
+                line = "zip -u -9 \"my archive.zip\" 'notes (old).txt' \"say \\\"hi\\\"\" C:\\docs\\report.txt";
+                break;
+            case "pipeline":
+                line = "cat logs/app.log|wc -l >> counts.txt";
+                break;
+            default:
+                throw new IllegalArgumentException(shape);
+        }
+    }
+
+    @Benchmark
+    public boolean parse() {
+        boolean parsed = TerminalHandle.parse(parser, line);
+        TerminalHandle.clear(parser);
+        return parsed;
+    }
+}
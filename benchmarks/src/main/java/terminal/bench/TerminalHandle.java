@@ -0,0 +1,115 @@
+package terminal.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Path;
+
+// Runs shell commands from benchmark code. Terminal lives in the default
+// package, which JMH benchmarks cannot import, so its members are reached
+// through method handles that are resolved once and held in static finals
+// (the JIT inlines through them like a direct call). Command output goes to
+// a null stream; a command that fails makes the benchmark fail.
+final class TerminalHandle {
+    private static final PrintStream NULL_OUT = new PrintStream(OutputStream.nullOutputStream());
+
+    private static final MethodHandle NEW_TERMINAL;
+    private static final MethodHandle EXECUTE;
+    private static final VarHandle OUT;
+    private static final VarHandle STATUS;
+    private static final MethodHandle LISTING_CACHE;
+    private static final MethodHandle INVALIDATE;
+    private static final MethodHandle NEW_PARSER;
+    private static final MethodHandle PARSE;
+    private static final MethodHandle CLEAR;
+
+    static {
+        try {
+            Class<?> terminal = Class.forName("Terminal");
+            Class<?> parser = Class.forName("Terminal$Parser");
+            Class<?> cache = Class.forName("Terminal$ListingCache");
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(terminal, MethodHandles.lookup());
+
+            NEW_TERMINAL = lookup.findConstructor(terminal, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+            EXECUTE = lookup.findVirtual(terminal, "executeCommand",
+                    MethodType.methodType(void.class, String.class, String[].class))
+                    .asType(MethodType.methodType(void.class, Object.class, String.class, String[].class));
+            OUT = lookup.findVarHandle(terminal, "out", PrintStream.class);
+            STATUS = lookup.findVarHandle(terminal, "status", int.class);
+            LISTING_CACHE = lookup.findGetter(terminal, "listingCache", cache)
+                    .asType(MethodType.methodType(Object.class, Object.class));
+            INVALIDATE = lookup.findVirtual(cache, "invalidate", MethodType.methodType(void.class, Path.class))
+                    .asType(MethodType.methodType(void.class, Object.class, Path.class));
+            NEW_PARSER = lookup.findConstructor(parser, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+            PARSE = lookup.findVirtual(parser, "parse", MethodType.methodType(boolean.class, String.class))
+                    .asType(MethodType.methodType(boolean.class, Object.class, String.class));
+            CLEAR = lookup.findVirtual(parser, "clear", MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(void.class, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Object terminal;
+
+    // a fresh terminal (with its own, empty listing cache) working in dir
+    TerminalHandle(Path dir) {
+        try {
+            terminal = (Object) NEW_TERMINAL.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException("cannot create terminal", e);
+        }
+        OUT.set(terminal, NULL_OUT);
+        run("cd", dir.toString());
+    }
+
+    void run(String command, String... args) {
+        STATUS.set(terminal, 0);
+        try {
+            EXECUTE.invokeExact(terminal, command, args);
+        } catch (Throwable e) {
+            throw new IllegalStateException(command + " threw " + e, e);
+        }
+        if ((int) STATUS.get(terminal) != 0) {
+            throw new IllegalStateException(command + " " + String.join(" ", args) + " failed");
+        }
+    }
+
+    // drops dir from this terminal's listing cache so the next ls reads it again
+    void invalidateListing(Path dir) {
+        try {
+            INVALIDATE.invokeExact((Object) LISTING_CACHE.invokeExact(terminal), dir);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static Object newParser() {
+        try {
+            return (Object) NEW_PARSER.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static boolean parse(Object parser, String line) {
+        try {
+            return (boolean) PARSE.invokeExact(parser, line);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void clear(Object parser) {
+        try {
+            CLEAR.invokeExact(parser);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
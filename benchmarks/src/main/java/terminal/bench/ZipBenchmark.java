@@ -0,0 +1,74 @@
+package terminal.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// zip -r of a tree of small text files, unzip of the same archive, and the
+// two back to back, with 1 and N worker threads.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ZipBenchmark {
+    @Param({"5000"})
+    public int files;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private Path root;
+    private TerminalHandle terminal;
+
+    @Setup
+    public void setup() throws IOException {
+        root = Fixtures.createRoot();
+        Fixtures.smallFiles(root.resolve("src"), files, 50, 8192);
+        terminal = new TerminalHandle(root);
+        terminal.run("zip", "-r", "reference.zip", "src");
+    }
+
+    @Setup(Level.Invocation)
+    public void clearOutputs() throws IOException {
+        Files.deleteIfExists(root.resolve("out.zip"));
+        Fixtures.emptyDirectory(root.resolve("unpacked"));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Fixtures.delete(root);
+    }
+
+    @Benchmark
+    public void zip() {
+        terminal.run("zip", "-r", "-j", Integer.toString(threads), "out.zip", "src");
+    }
+
+    @Benchmark
+    public void unzip() {
+        terminal.run("unzip", "-j", Integer.toString(threads), "reference.zip", "unpacked");
+    }
+
+    @Benchmark
+    public void roundTrip() {
+        zip();
+        terminal.run("unzip", "-j", Integer.toString(threads), "out.zip", "unpacked");
+    }
+}
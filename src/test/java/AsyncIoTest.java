@@ -0,0 +1,59 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AsyncIoTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void writeStoresTheWholeStream() throws IOException {
+        byte[] data = new byte[1_000_000];
+        new Random(1).nextBytes(data);
+        Terminal.AsyncIo io = new Terminal.AsyncIo(4, 64 * 1024);
+
+        assertEquals(data.length, io.write(new ByteArrayInputStream(data), dir.resolve("out"), -1));
+        assertArrayEquals(data, Files.readAllBytes(dir.resolve("out")));
+    }
+
+    @Test
+    void closedBackendWritesTheBlockingWay() throws IOException {
+        byte[] data = new byte[1_000_000];
+        new Random(2).nextBytes(data);
+        Terminal.AsyncIo io = new Terminal.AsyncIo(4, 64 * 1024);
+        io.close();
+
+        assertEquals(data.length, io.write(new ByteArrayInputStream(data), dir.resolve("out"), -1));
+        assertArrayEquals(data, Files.readAllBytes(dir.resolve("out")));
+    }
+
+    @Test
+    void failedWriteReturnsItsBuffers() {
+        Terminal.AsyncIo io = new Terminal.AsyncIo(4, 64 * 1024);
+        long inUse = Terminal.BufferArena.SHARED.inUseBytes();
+        InputStream failing = new InputStream() {
+            private int left = 100;
+
+            @Override
+            public int read() throws IOException {
+                if (left == 0) {
+                    throw new IOException("read failed");
+                }
+                left--;
+                return 'x';
+            }
+        };
+
+        assertThrows(IOException.class, () -> io.write(failing, dir.resolve("out"), -1));
+        assertEquals(inUse, Terminal.BufferArena.SHARED.inUseBytes());
+    }
+}
@@ -0,0 +1,51 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.Test;
+
+class BufferArenaTest {
+    @Test
+    void releasedBufferIsReusedBySameThread() {
+        Terminal.BufferArena arena = new Terminal.BufferArena(1 << 20);
+        byte[] first = arena.heap(1000);
+        arena.release(first);
+
+        assertSame(first, arena.heap(8 * 1024));
+        assertEquals(1, arena.hits());
+        assertEquals(1, arena.misses());
+    }
+
+    @Test
+    void forkJoinWorkersReturnBuffersToTheSharedPool() throws Exception {
+        Terminal.BufferArena arena = new Terminal.BufferArena(1 << 20);
+        ForkJoinPool pool = new ForkJoinPool(1);
+        byte[] released;
+        try {
+            released = pool.submit(() -> {
+                byte[] bytes = arena.heap(64 * 1024);
+                arena.release(bytes);
+                return bytes;
+            }).get();
+        } finally {
+            pool.shutdown();
+        }
+
+        assertSame(released, arena.heap(64 * 1024));
+        assertEquals(64 * 1024, arena.inUseBytes());
+        assertEquals(0, arena.pooledBytes());
+    }
+
+    @Test
+    void buffersBeyondTheCapAreDropped() {
+        Terminal.BufferArena arena = new Terminal.BufferArena(64 * 1024);
+        byte[] a = arena.heap(64 * 1024);
+        byte[] b = arena.heap(64 * 1024);
+        arena.release(a);
+        arena.release(b);
+
+        assertEquals(1, arena.dropped());
+        assertEquals(64 * 1024, arena.pooledBytes());
+        assertEquals(0, arena.inUseBytes());
+    }
+}
@@ -0,0 +1,37 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CatTest {
+    @TempDir
+    Path dir;
+
+    private int run(String... lines) throws IOException {
+        String script = "cd " + dir + "\n" + String.join("\n", lines) + "\n";
+        return new Terminal().runBatch(new BufferedReader(new StringReader(script)), true);
+    }
+
+    @Test
+    void rawConcatenationWritesBatchEndingWithEmptyFile() throws IOException {
+        Files.writeString(dir.resolve("a.txt"), "first\n");
+        Files.writeString(dir.resolve("b.txt"), "second\n");
+        Files.writeString(dir.resolve("empty.txt"), "");
+
+        assertEquals(0, run("cat -r a.txt b.txt empty.txt > out.txt"));
+        assertEquals("first\nsecond\n", Files.readString(dir.resolve("out.txt")));
+    }
+
+    @Test
+    void rawConcatenationOfOnlyEmptyFiles() throws IOException {
+        Files.writeString(dir.resolve("empty.txt"), "");
+
+        assertEquals(0, run("cat -r empty.txt empty.txt > out.txt"));
+        assertEquals("", Files.readString(dir.resolve("out.txt")));
+    }
+}
@@ -0,0 +1,74 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class GrepTest {
+    @TempDir
+    Path dir;
+
+    private int run(String... lines) throws IOException {
+        String script = "cd " + dir + "\n" + String.join("\n", lines) + "\n";
+        return new Terminal().runBatch(new BufferedReader(new StringReader(script)), false);
+    }
+
+    private String output() throws IOException {
+        return Files.readString(dir.resolve("out.txt"));
+    }
+
+    @Test
+    void literalMatchesOverBytes() throws IOException {
+        Files.writeString(dir.resolve("f.txt"), "alpha\nneedle one\nbeta\nNEEDLE two\nend needle");
+
+        assertEquals(0, run("grep -n needle f.txt > out.txt"));
+        assertEquals("2:needle one\n5:end needle\n", output());
+        assertEquals(0, run("grep -i needle f.txt > out.txt"));
+        assertEquals("needle one\nNEEDLE two\nend needle\n", output());
+    }
+
+    @Test
+    void regexFallsBackToLineMatching() throws IOException {
+        Files.writeString(dir.resolve("f.txt"), "alpha\nneedle one\nnedle\n");
+
+        assertEquals(0, run("grep -c 'ne+dle' f.txt > out.txt"));
+        assertEquals("2\n", output());
+    }
+
+    @Test
+    void noMatchIsAFailureStatus() throws IOException {
+        Files.writeString(dir.resolve("f.txt"), "alpha\n");
+
+        assertEquals(1, run("grep needle f.txt > out.txt"));
+        assertEquals("", output());
+    }
+
+    @Test
+    void lineAcrossMappedWindowsIsFoundOnce() throws IOException {
+        // a 54-byte first line puts the start of line 262145 ten bytes before the 16 MB window end
+        byte[] filler = ("x".repeat(63) + "\n").getBytes(StandardCharsets.US_ASCII);
+        String needle = "needle".repeat(10) + "!!!";
+        long before = (Terminal.GREP_WINDOW - 10 - 54) / filler.length;
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(dir.resolve("big.txt")), 1 << 16)) {
+            out.write(("y".repeat(53) + "\n").getBytes(StandardCharsets.US_ASCII));
+            for (long i = 0; i < before; i++) {
+                out.write(filler);
+            }
+            out.write((needle + "\n").getBytes(StandardCharsets.US_ASCII));
+            for (int i = 0; i < 2000; i++) {
+                out.write(filler);
+            }
+            out.write("last needle".getBytes(StandardCharsets.US_ASCII));
+        }
+
+        assertEquals(0, run("grep -n needle big.txt > out.txt"));
+        assertEquals((before + 2) + ":" + needle + "\n" + (before + 2003) + ":last needle\n", output());
+    }
+}
@@ -0,0 +1,96 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class ParserTest {
+    private final Terminal.Parser parser = new Terminal.Parser();
+
+    // the tokens of the line, operators shown as they are typed
+    private List<String> tokens(String line) {
+        assertTrue(parser.parse(line));
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < parser.size(); i++) {
+            switch (parser.kind(i)) {
+                case Terminal.Parser.PIPE:
+                    tokens.add("|");
+                    break;
+                case Terminal.Parser.REDIRECT:
+                    tokens.add(">");
+                    break;
+                case Terminal.Parser.APPEND:
+                    tokens.add(">>");
+                    break;
+                case Terminal.Parser.BACKGROUND:
+                    tokens.add("&");
+                    break;
+                default:
+                    tokens.add(parser.token(i));
+            }
+        }
+        return tokens;
+    }
+
+    @Test
+    void quotesGroupWordsAndAreRemoved() {
+        assertEquals(List.of("echo", "hello world", "a b", "x\"y"), tokens("echo \"hello world\" 'a b' 'x\"y'"));
+    }
+
+    @Test
+    void backslashEscapesQuotesAndOperatorsOnly() {
+        assertEquals(List.of("echo", "\"q\"", "a|b", "c>d", "two words"),
+                tokens("echo \\\"q\\\" a\\|b c\\>d two\\ words"));
+        assertEquals(List.of("cd", "C:\\dir\\sub"), tokens("cd C:\\dir\\sub"));
+    }
+
+    @Test
+    void operatorsNeedNoSpaces() {
+        assertEquals(List.of("cat", "a.txt", "|", "wc", "-l", ">>", "n.txt"), tokens("cat a.txt|wc -l>>n.txt"));
+        assertEquals(List.of("ls", ">", "out"), tokens("ls>out"));
+    }
+
+    @Test
+    void quotedOperatorsAreWords() {
+        assertEquals(List.of("echo", "a|b", ">"), tokens("echo \"a|b\" '>'"));
+        assertEquals(Terminal.Parser.WORD, parser.kind(2));
+    }
+
+    @Test
+    void ampersandIsAnOperatorUnlessQuoted() {
+        assertEquals(List.of("sleep", "1", "&"), tokens("sleep 1&"));
+        assertEquals(List.of("echo", "a&b"), tokens("echo 'a&b'"));
+    }
+
+    @Test
+    void blankLineHasNoTokens() {
+        assertFalse(parser.parse("   \t "));
+    }
+
+    @Test
+    void unterminatedQuoteIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> parser.parse("echo \"open"));
+    }
+
+    @Test
+    void flagsGroupSwitchesAndTakeValues() {
+        Terminal.Flags flags = Terminal.Flags.parse(new String[] { "-rl", "-j", "4", "a", "--", "-b" }, "rl", "j");
+
+        assertTrue(flags.has('r'));
+        assertTrue(flags.has('l'));
+        assertEquals(4, flags.intValue('j', 1));
+        assertEquals(List.of("a", "-b"), flags.operands());
+        assertEquals(8, Terminal.Flags.parse(new String[] { "-j8" }, "", "j").intValue('j', 1));
+    }
+
+    @Test
+    void flagsRejectUnknownSwitchesAndBadValues() {
+        assertThrows(IllegalArgumentException.class, () -> Terminal.Flags.parse(new String[] { "-x" }, "r", "j"));
+        assertThrows(IllegalArgumentException.class, () -> Terminal.Flags.parse(new String[] { "-j" }, "r", "j"));
+        Terminal.Flags flags = Terminal.Flags.parse(new String[] { "-j", "0" }, "", "j");
+        assertThrows(IllegalArgumentException.class, () -> flags.intValue('j', 1));
+    }
+}
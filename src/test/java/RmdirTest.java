@@ -0,0 +1,62 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RmdirTest {
+    @TempDir
+    Path dir;
+
+    private int run(String... lines) throws IOException {
+        String script = "cd " + dir + "\n" + String.join("\n", lines) + "\n";
+        return new Terminal().runBatch(new BufferedReader(new StringReader(script)), false);
+    }
+
+    @Test
+    void parentsFlagRemovesEmptiedParents() throws IOException {
+        Files.createDirectories(dir.resolve("p/q/r"));
+
+        assertEquals(0, run("rmdir -p p/q/r > log.txt"));
+        assertFalse(Files.exists(dir.resolve("p")));
+    }
+
+    @Test
+    void parentsFlagStopsAtNonEmptyParent() throws IOException {
+        Files.createDirectories(dir.resolve("p/q/r"));
+        Files.writeString(dir.resolve("p/keep.txt"), "x");
+
+        assertEquals(1, run("rmdir -p p/q/r > log.txt"));
+        assertFalse(Files.exists(dir.resolve("p/q")));
+        assertTrue(Files.exists(dir.resolve("p/keep.txt")));
+    }
+
+    @Test
+    void sweepRemovesDirectoriesHoldingOnlyEmptyDirectories() throws IOException {
+        Files.createDirectories(dir.resolve("t/a/b"));
+        Files.createDirectories(dir.resolve("t/c"));
+        Files.writeString(dir.resolve("t/c/f.txt"), "x");
+
+        assertEquals(0, run("rmdir -s t > log.txt"));
+        assertFalse(Files.exists(dir.resolve("t/a")));
+        assertTrue(Files.exists(dir.resolve("t/c/f.txt")));
+        assertEquals("Removed 2 directories that held only empty directories under t\n",
+                Files.readString(dir.resolve("log.txt")));
+    }
+
+    @Test
+    void sweepCountsOneDirectoryInTheSingular() throws IOException {
+        Files.createDirectories(dir.resolve("t/a"));
+        Files.writeString(dir.resolve("t/f.txt"), "x");
+
+        assertEquals(0, run("rmdir -s t > log.txt"));
+        assertEquals("Removed 1 directory that held only empty directories under t\n",
+                Files.readString(dir.resolve("log.txt")));
+    }
+}
@@ -0,0 +1,79 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class WordCounterTest {
+    @TempDir
+    Path dir;
+
+    private static Terminal.WordCounter.Counts scan(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        Terminal.WordCounter.Counts counts = new Terminal.WordCounter.Counts();
+        counts.scan(bytes, bytes.length);
+        return counts;
+    }
+
+    @Test
+    void crlfAndTabsSeparateWords() {
+        Terminal.WordCounter.Counts counts = scan("one two\r\nthree\tfour\r\n\r\n five");
+
+        assertEquals(3, counts.lines);
+        assertEquals(5, counts.words);
+        assertEquals(28, counts.bytes);
+    }
+
+    @Test
+    void wordSplitBetweenSegmentsIsCountedOnce() {
+        Terminal.WordCounter.Counts counts = scan("hello wo").merge(scan("rld again\n"));
+
+        assertEquals(1, counts.lines);
+        assertEquals(3, counts.words);
+        assertEquals(18, counts.bytes);
+    }
+
+    @Test
+    void segmentsMeetingOnWhitespaceKeepBothWords() {
+        assertEquals(2, scan("hello ").merge(scan("world")).words);
+        assertEquals(2, scan("hello").merge(scan("\r\nworld")).words);
+    }
+
+    @Test
+    void emptySegmentLeavesTheMergeUnchanged() {
+        Terminal.WordCounter.Counts counts = scan("ab").merge(scan("")).merge(scan("cd"));
+
+        assertEquals(1, counts.words);
+        assertEquals(4, counts.bytes);
+    }
+
+    @Test
+    void parallelCountMatchesTheSequentialScan() throws IOException {
+        // 7-byte lines, so words straddle every 4 MB segment boundary
+        byte[] line = "abc de\n".getBytes(StandardCharsets.US_ASCII);
+        long lines = Terminal.WordCounter.PARALLEL_THRESHOLD / line.length + 1000;
+        Path file = dir.resolve("big.txt");
+        try (OutputStream out = Files.newOutputStream(file)) {
+            byte[] block = new byte[line.length * 1024];
+            for (int i = 0; i < block.length; i++) {
+                block[i] = line[i % line.length];
+            }
+            for (long written = 0; written < lines; written += 1024) {
+                out.write(block);
+            }
+        }
+        long expectedLines = Files.size(file) / line.length;
+
+        Terminal.WordCounter.Counts counts = Terminal.WordCounter.count(file, ByteBuffer.allocate(64 * 1024),
+                new byte[64 * 1024]);
+
+        assertEquals(expectedLines, counts.lines);
+        assertEquals(expectedLines * 2, counts.words);
+        assertEquals(Files.size(file), counts.bytes);
+    }
+}
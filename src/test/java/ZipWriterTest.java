@@ -0,0 +1,120 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ZipWriterTest {
+    @TempDir
+    Path dir;
+
+    private static Terminal.CompressedEntry stored(String name, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        Terminal.CompressedEntry entry = new Terminal.CompressedEntry();
+        entry.name = name;
+        entry.method = ZipEntry.STORED;
+        entry.crc = crc.getValue();
+        entry.size = bytes.length;
+        entry.compressedSize = bytes.length;
+        entry.data = new ByteArrayOutputStream();
+        entry.data.write(bytes);
+        return entry;
+    }
+
+    private Terminal.ZipSource source(String name, byte[] bytes) throws IOException {
+        Path file = dir.resolve(name);
+        Files.write(file, bytes);
+        return new Terminal.ZipSource(file, name, Files.readAttributes(file, BasicFileAttributes.class));
+    }
+
+    // whether the archive ends with a Zip64 end record and locator before the classic end record
+    private static boolean hasZip64End(Path archive) throws IOException {
+        byte[] bytes = Files.readAllBytes(archive);
+        int locator = bytes.length - 22 - 20;
+        return locator >= 0 && bytes[locator] == 'P' && bytes[locator + 1] == 'K' && bytes[locator + 2] == 6
+                && bytes[locator + 3] == 7;
+    }
+
+    @Test
+    void smallArchiveUsesTheClassicFormat() throws IOException {
+        Path archive = dir.resolve("small.zip");
+        try (Terminal.ZipWriter writer = new Terminal.ZipWriter(archive)) {
+            writer.write(stored("a.txt", "hello\n"));
+            writer.write(stored("dir/b.txt", ""));
+        }
+
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            assertEquals(2, zip.size());
+            assertEquals("hello\n", new String(zip.getInputStream(zip.getEntry("a.txt")).readAllBytes(),
+                    StandardCharsets.UTF_8));
+            assertEquals(0, zip.getEntry("dir/b.txt").getSize());
+        }
+        assertFalse(hasZip64End(archive));
+    }
+
+    @Test
+    void entryCountAboveTheClassicLimitWritesZip64End() throws IOException {
+        int count = 0xFFFF + 1;
+        Path archive = dir.resolve("many.zip");
+        try (Terminal.ZipWriter writer = new Terminal.ZipWriter(archive)) {
+            for (int i = 0; i < count; i++) {
+                writer.write(stored("e" + i, ""));
+            }
+        }
+
+        assertTrue(hasZip64End(archive));
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            assertEquals(count, zip.size());
+            assertEquals(0, zip.getEntry("e" + (count - 1)).getSize());
+        }
+    }
+
+    @Test
+    void emptyFileIsStored() throws IOException {
+        Terminal.CompressedEntry entry = Terminal.CompressedEntry.compress(source("empty.txt", new byte[0]), 6);
+
+        assertEquals(ZipEntry.STORED, entry.method);
+        assertEquals(0, entry.compressedSize);
+    }
+
+    @Test
+    void compressedExtensionIsStoredInAnyCase() throws IOException {
+        byte[] text = "aaaa".repeat(10_000).getBytes(StandardCharsets.US_ASCII);
+        Terminal.CompressedEntry entry = Terminal.CompressedEntry.compress(source("PHOTO.JPG", text), 6);
+
+        assertEquals(ZipEntry.STORED, entry.method);
+        assertEquals(text.length, entry.compressedSize);
+    }
+
+    @Test
+    void incompressibleDataFallsBackToStore() throws IOException {
+        byte[] noise = new byte[256 * 1024];
+        new Random(1).nextBytes(noise);
+        Terminal.CompressedEntry entry = Terminal.CompressedEntry.compress(source("noise.bin", noise), 9);
+
+        assertEquals(ZipEntry.STORED, entry.method);
+        assertEquals(noise.length, entry.compressedSize);
+    }
+
+    @Test
+    void textIsDeflated() throws IOException {
+        byte[] text = "all work and no play\n".repeat(5_000).getBytes(StandardCharsets.US_ASCII);
+        Terminal.CompressedEntry entry = Terminal.CompressedEntry.compress(source("a.txt", text), 6);
+
+        assertEquals(ZipEntry.DEFLATED, entry.method);
+        assertTrue(entry.compressedSize < text.length / 10);
+    }
+}